@@ -4,16 +4,26 @@ import AuctionHouse.ItemInfo;
 import AuctionProxy.AuctionProxy;
 import AuctionProxy.AuctionProcess;
 import AuctionProxy.BidInfo;
+import AuctionProxy.ItemQuery;
+import AuctionProxy.ItemSort;
+import AuctionProxy.LotListener;
 import BankProxy.BankProxy;
 import BankProxy.BankProcess;
 import AuctionHouse.Bid;
 import Network.NetworkDevice;
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingQueue;
 
 public class Agent implements BankProcess, AuctionProcess {
 
+    // Bank calls made within this many microseconds go out as one batch
+    private static final long BANK_BATCH_WINDOW = 2000;
+    private static final int BANK_BATCH_SIZE = 16;
+
     // Manage bank account and get auction connections
     private BankProxy bankProxy;
     private int accountID = 0;
@@ -24,6 +34,9 @@ public class Agent implements BankProcess, AuctionProcess {
     // AgentApp
     private AgentApp agentApp;
 
+    // Told about changes pushed by the houses
+    private volatile LotListener lotListener;
+
 
     /**
      * Connect to the bank to make an account and receive auction info
@@ -34,6 +47,7 @@ public class Agent implements BankProcess, AuctionProcess {
     public Agent(String bankHost, int bankPort, AgentApp agentApp) {
         this.agentApp = agentApp;
         bankProxy = new BankProxy(bankHost, bankPort, this);
+        bankProxy.setBatching(BANK_BATCH_WINDOW, BANK_BATCH_SIZE);
     }
 
     /**
@@ -42,7 +56,11 @@ public class Agent implements BankProcess, AuctionProcess {
      * @return account number
      */
     public int addAccount(){
-        if (accountID == 0) setAccountID(bankProxy.addAccount());
+        if (accountID == 0) {
+            // -1 means the Bank didn't answer, so ask again next time
+            int ID = bankProxy.addAccount();
+            if (ID != -1) setAccountID(ID);
+        }
 
         return accountID;
     }
@@ -91,6 +109,9 @@ public class Agent implements BankProcess, AuctionProcess {
     /**
      * Gets an ArrayList of all of the Items
      *
+     * The request goes out to every auction before any answer is waited on,
+     * so the houses are read in parallel.
+     *
      * @return ArrayList of Items
      */
     @Override
@@ -99,21 +120,108 @@ public class Agent implements BankProcess, AuctionProcess {
         // Info from all auctions
         ArrayList<ItemInfo> itemInfos = new ArrayList<>();
 
-        // Get info from each auction
-        ArrayList<ItemInfo> auctionsItems;
+        // Ask every auction first
+        ArrayList<CompletableFuture<ArrayList<ItemInfo>>> requests =
+                new ArrayList<>();
+        for (AuctionProxy auctionProxy : connAP) {
+            requests.add(auctionProxy.getItemsAsync());
+        }
 
         // Add all info form all auctions
-        for (AuctionProxy auctionProxy : connAP) {
+        for (CompletableFuture<ArrayList<ItemInfo>> request : requests) {
+            try {
+                // Each info has its proxy set for GUI updates and etc
+                ArrayList<ItemInfo> auctionsItems = request.get();
+
+                if (auctionsItems != null) {
+                    itemInfos.addAll(auctionsItems);
+                }
+            } catch (ExecutionException e) {
+                // Skip an auction that went away
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
 
-            // Set each info proxy so the agent can get updates for GUI and etc
-            auctionsItems = auctionProxy.getItems();
+        return itemInfos;
+    }
+
+    /**
+     * Gets one page of the lots that match a query, from every auction
+     *
+     * Each house returns its own page and the pages are merged, so the
+     * last lot of the merged page is where the next page starts. Houses
+     * number their lots alike, so lots of different houses can tie in the
+     * order, those go in the order of the houses.
+     *
+     * @param query Name prefix, price range, order and page to get
+     * @return lots on the page, in order
+     */
+    @Override
+    public synchronized ArrayList<ItemInfo> query(ItemQuery query) {
+        ArrayList<AuctionProxy> houses = new ArrayList<>(connAP);
+        Comparator<ItemInfo> order = ItemQuery.order(query.getSort())
+                .thenComparingInt(info -> houses.indexOf(info.getProxy()));
+
+        // Ask every auction first, each from where its own lots stopped
+        ArrayList<CompletableFuture<ArrayList<ItemInfo>>> requests =
+                new ArrayList<>();
+        for (AuctionProxy auctionProxy : houses) {
+            requests.add(auctionProxy.queryAsync(
+                    continued(query, auctionProxy, houses)));
+        }
 
-            if (auctionsItems != null) {
-                itemInfos.addAll(auctionsItems);
+        ArrayList<ItemInfo> page = new ArrayList<>();
+        for (CompletableFuture<ArrayList<ItemInfo>> request : requests) {
+            try {
+                page.addAll(request.get());
+            } catch (ExecutionException e) {
+                // Skip an auction that went away
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
             }
         }
 
-        return itemInfos;
+        // Only the first lots across all of them make the page
+        page.sort(order);
+        while (page.size() > query.getLimit()) {
+            page.remove(page.size() - 1);
+        }
+        return page;
+    }
+
+    /**
+     * Makes the query one house is asked. A house after the one the last
+     * page stopped at hadn't reached a lot that ties with where it stopped,
+     * so it starts just before that lot instead of after it.
+     *
+     * @param query Query asked
+     * @param house House to ask
+     * @param houses Houses in the order ties go in
+     * @return query for the house
+     */
+    private static ItemQuery continued(ItemQuery query, AuctionProxy house,
+                                       ArrayList<AuctionProxy> houses) {
+        ItemInfo after = query.getAfter();
+        if (after == null ||
+                houses.indexOf(house) <= houses.indexOf(after.getProxy())) {
+            return query;
+        }
+
+        // Item IDs break ties, so the ID next to it in the order comes
+        // right before it
+        int before = query.getSort() == ItemSort.PRICE_DESCENDING ?
+                after.getItemID() + 1 : after.getItemID() - 1;
+
+        ItemQuery continued = new ItemQuery(query.getSort(),
+                query.getLimit());
+        continued.setPrefix(query.getPrefix());
+        continued.setPriceRange(query.getMinPrice(), query.getMaxPrice());
+        continued.setAfter(new ItemInfo(after.getName(), after.getPrice(),
+                before));
+        return continued;
     }
 
     /**
@@ -133,9 +241,21 @@ public class Agent implements BankProcess, AuctionProcess {
      */
     @Override
     public boolean closeRequest(int accountID) {
-        // Loop through the AuctionProxies and check each one
+        // Ask every AuctionProxy at once, then check each one
+        ArrayList<CompletableFuture<Boolean>> requests = new ArrayList<>();
         for (AuctionProxy ap : connAP) {
-            if (!ap.closeRequest(accountID)) return false;
+            requests.add(ap.closeRequestAsync(accountID));
+        }
+
+        for (CompletableFuture<Boolean> request : requests) {
+            try {
+                if (!request.get()) return false;
+            } catch (ExecutionException e) {
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
         }
         return true;
     }
@@ -172,6 +292,31 @@ public class Agent implements BankProcess, AuctionProcess {
         return bankProxy.getBalance(accountID);
     }
 
+    /**
+     * Gets the balance and the total balance of the Agent in one trip to
+     * the bank
+     *
+     * @return balance, then total balance, NaN if the Bank couldn't be asked
+     */
+    public double[] getBalances() {
+        CompletableFuture<Double> balance =
+                bankProxy.getBalanceAsync(accountID);
+        CompletableFuture<Double> total =
+                bankProxy.getTotalBalanceAsync(accountID);
+        bankProxy.flush();
+
+        double[] balances = {Double.NaN, Double.NaN};
+        try {
+            balances[0] = balance.get();
+            balances[1] = total.get();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return balances;
+    }
+
     /**
      * Gets the total balance, including the locked amount
      *
@@ -247,6 +392,31 @@ public class Agent implements BankProcess, AuctionProcess {
         return bankProxy.unlockFunds(AccountID, lockID);
     }
 
+    /**
+     * Changes the amount held by an existing lock
+     *
+     * @param AccountID Unique Identifier of Account
+     * @param lockID Identifier of the lock
+     * @param amount New amount of the lock
+     */
+    @Override
+    public boolean adjustLock(int AccountID, int lockID, double amount) {
+        return bankProxy.adjustLock(AccountID, lockID, amount);
+    }
+
+    /**
+     * Locks funds in one account and unlocks a lock in another as one step
+     *
+     * @param fromID Account holding the old lock
+     * @param lockID Identifier of the old lock
+     * @param toID Account to lock the funds in
+     * @param amount Amount of Money
+     */
+    @Override
+    public int swapLock(int fromID, int lockID, int toID, double amount) {
+        return bankProxy.swapLock(fromID, lockID, toID, amount);
+    }
+
     /**
      * Transfer funds of amount specified from ID1 to ID2
      *
@@ -339,8 +509,51 @@ public class Agent implements BankProcess, AuctionProcess {
                 return;
             }
         }
-        // If not contained, add new proxy
-        getConnAP().add(new AuctionProxy(auction.getIpAddress(), auction.getPort(), agentApp));
+        // If not contained, add new proxy that gets changes pushed
+        AuctionProxy proxy = new AuctionProxy(auction.getIpAddress(),
+                auction.getPort(), agentApp);
+        proxy.setLotListener(lotListener);
+        proxy.subscribe();
+        getConnAP().add(proxy);
+    }
+
+    /**
+     * Sets who is told about lots opening, changing price and closing at
+     * any of the connected houses
+     *
+     * @param lotListener Listener, null for none
+     */
+    public void setLotListener(LotListener lotListener) {
+        this.lotListener = lotListener;
+        for (AuctionProxy ap : connAP) {
+            ap.setLotListener(lotListener);
+        }
+    }
+
+    /**
+     * Asks the lot's house to push the lot's price changes and closing
+     *
+     * @param info Lot to watch
+     * @return false if the lot isn't open or too many are watched
+     */
+    public boolean watch(ItemInfo info) {
+        try {
+            return info.getProxy().watch(info.getItemID()).get();
+        } catch (ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Stops the pushes of a watched lot
+     *
+     * @param info Lot that was watched
+     */
+    public void unwatch(ItemInfo info) {
+        info.getProxy().unwatch(info.getItemID());
     }
 
     public BidInfo bid(AuctionProxy proxy, Bid bid) {
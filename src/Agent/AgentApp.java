@@ -1,7 +1,9 @@
 package Agent;
 
 import AuctionHouse.ItemInfo;
+import AuctionProxy.AuctionInfo;
 import AuctionProxy.BidInfo;
+import AuctionProxy.LotListener;
 import AuctionHouse.Bid;
 import javafx.application.Application;
 import javafx.application.Platform;
@@ -20,8 +22,11 @@ import java.util.ArrayList;
 
 /**
  * Agent app for the user to connect to the servers
+ *
+ * The houses push every change to their lots, the table is updated from
+ * those instead of being reloaded every few seconds.
  */
-public class AgentApp extends Application{
+public class AgentApp extends Application implements LotListener {
 
     // Static variables for default settings
     private static final double APP_WIDTH = 800;
@@ -176,6 +181,7 @@ public class AgentApp extends Application{
         Button auctionButton = new Button("Start Auction");
         auctionButton.setOnAction(e-> {
 
+            agent.setLotListener(this);
             agent.connectToAuctions();
 
             window.setScene( new Scene(auctionRoot(), APP_WIDTH, APP_HEIGHT));
@@ -303,7 +309,6 @@ public class AgentApp extends Application{
                 }
                 selectedItem = null;
                 selectedItemText.setText("");
-                refreshTableView();
                 refreshBalance();
             }
 
@@ -330,44 +335,41 @@ public class AgentApp extends Application{
         auctionItemRoot.setHgap(5);
         auctionItemRoot.setVgap(5);
 
-        // Create a refresh thread
-        Thread one = new Thread(() -> {
-            while (true) {
-                try{
-                    Thread.sleep(2000);
-                    refreshTableView();
-                } catch(InterruptedException v) {
-                    System.out.println("Interrupted");
-                    return;
-                }
-            }
-        });
-        one.start();
-
 
         return auctionItemRoot;
     }
 
     /**
-     * Refresh the table's graphical elements
+     * Applies a change pushed by a house to the table
+     *
+     * @param type LOTOPENED, PRICECHANGED or LOTCLOSED
+     * @param info Lot that changed
      */
-    private void refreshTableView() {
-
-        // Check for selected item
-        if (selectedItem == null) {
-            ArrayList<ItemInfo> itemInfos = agent.getItems();
-
-            // Get the items and refresh them
-            tableView.getItems().clear();
-            for (ItemInfo info : itemInfos) {
-                if (!tableView.getItems().contains(info)) {
-                    tableView.getItems().add(info);
+    @Override
+    public void lotChanged(AuctionInfo type, ItemInfo info) {
+        Platform.runLater(() -> {
+            // Filled from the houses when it's made
+            if (tableView == null) return;
+
+            // Rows match by house and item ID
+            int row = tableView.getItems().indexOf(info);
+            if (type == AuctionInfo.LOTCLOSED) {
+                if (row >= 0) tableView.getItems().remove(row);
+                if (selectedItem != null && selectedItem.equals(info)) {
+                    selectedItem = null;
+                    selectedItemText.setText("");
+                }
+            } else if (row >= 0) {
+                tableView.getItems().set(row, info);
+                if (selectedItem != null && selectedItem.equals(info)) {
+                    selectedItem = info;
                 }
+            } else {
+                tableView.getItems().add(info);
             }
-        }
+        });
     }
 
-
     /**
      * Create the Bank account on the bidding page
      *
@@ -382,11 +384,14 @@ public class AgentApp extends Application{
         Label accountLabel = new Label("Account# : ");
         Text accountNum = new Text(String.valueOf(agent.getAccountID()));
 
+        // Both balances in one trip to the bank
+        double[] balances = agent.getBalances();
+
         Label balanceLabel = new Label("Available Balance : ");
-        accountBal = new Text(String.valueOf(agent.getBalance()));
+        accountBal = new Text(String.valueOf(balances[0]));
 
         Label totalLabel = new Label("Total Balance : ");
-        totalBal = new Text(String.valueOf(agent.getTotalBalance()));
+        totalBal = new Text(String.valueOf(balances[1]));
 
 
         // Add funds input
@@ -449,8 +454,9 @@ public class AgentApp extends Application{
     private void refreshBalance() {
         // Check for nullity
         if (accountBal != null && totalBal != null) {
-            accountBal.setText(String.valueOf(agent.getBalance()));
-            totalBal.setText(String.valueOf(agent.getTotalBalance()));
+            double[] balances = agent.getBalances();
+            accountBal.setText(String.valueOf(balances[0]));
+            totalBal.setText(String.valueOf(balances[1]));
         }
     }
 
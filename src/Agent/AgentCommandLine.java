@@ -51,6 +51,11 @@ public class AgentCommandLine extends AgentApp {
             return;
         }
 
+        // Print what the houses push as it happens
+        agent.setLotListener((type, info) ->
+                System.out.println(type + ": " + info.getName() + " $" +
+                        info.getPrice() + " #" + info.getItemID()));
+
         // Main loop goes until "exit"
         while (!input.equals("Exit")) {
 
@@ -99,7 +104,7 @@ public class AgentCommandLine extends AgentApp {
             // If auction, make bid and view the available items
             if (input.equals("2")) {
 
-                // Get the items
+                // Get the items, kept up to date by the houses' pushes
                 ArrayList<ItemInfo> auctionItems = agent.getItems();
 
                 //
@@ -126,6 +131,7 @@ public class AgentCommandLine extends AgentApp {
                     double amount = Double.parseDouble(input);
 
                     agent.bid(new Bid(amount, agent.getAccountID(), itemIndex));
+                    auctionItems = agent.getItems();
                 }
                     System.out.println("Sorry, no more items in this auction");
             }
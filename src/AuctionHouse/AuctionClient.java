@@ -0,0 +1,36 @@
+package AuctionHouse;
+
+import AuctionProxy.AuctionRequest;
+import AuctionProxy.BidInfo;
+
+/**
+ * A connected agent that can be told about its bids, whichever server mode
+ * the AuctionHouse runs in
+ */
+public interface AuctionClient {
+
+    /**
+     * Notify the recipient of bid status
+     *
+     * @param status bid status
+     * @param info item bid on
+     * @param amount Amount of the bid
+     */
+    void notifyBid(BidInfo status, ItemInfo info, double amount);
+
+    /**
+     * Pushes a lot event the agent subscribed to
+     *
+     * @param event Event to send
+     * @return false if the agent can't be reached anymore
+     */
+    boolean push(AuctionRequest event);
+
+    /**
+     * Checks whether the agent has so much waiting to be sent that pushes
+     * should be held back
+     *
+     * @return true if the agent isn't keeping up
+     */
+    boolean isBacklogged();
+}
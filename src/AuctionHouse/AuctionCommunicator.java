@@ -1,19 +1,32 @@
 package AuctionHouse;
 
+import AuctionProxy.AuctionCodec;
 import AuctionProxy.AuctionInfo;
 import AuctionProxy.AuctionRequest;
 import AuctionProxy.BidInfo;
+import Concurrency.ThreadRunner;
+import Network.PacketStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public class AuctionCommunicator implements Runnable{
+public class AuctionCommunicator implements Runnable, AuctionClient {
+
+    // Pushes waiting for the socket before more are held back
+    private static final int PUSH_QUEUE = 64;
 
     private Socket s;
     private AuctionHouse auctionHouse;
-    private ObjectInputStream is;
-    private ObjectOutputStream os;
+    private PacketStream<AuctionRequest> stream;
+
+    // Pushes are written by a thread of their own, so a stuck socket only
+    // holds up this agent
+    private ArrayBlockingQueue<AuctionRequest> pushes =
+            new ArrayBlockingQueue<>(PUSH_QUEUE);
+    private AtomicBoolean pusherStarted = new AtomicBoolean(false);
+    private volatile boolean pushFailed = false;
+    private volatile Thread pusher;
 
     /**
      * Thread for communication with a single socket
@@ -26,14 +39,14 @@ public class AuctionCommunicator implements Runnable{
         this.auctionHouse = auctionHouse;
 
         try {
-            os = new ObjectOutputStream(s.getOutputStream());
-            is = new ObjectInputStream(s.getInputStream());
+            stream = PacketStream.accept(s, new AuctionCodec());
         } catch (IOException e) {
             e.printStackTrace();
         }
         System.out.println("Created auction communicator class for " +
-                s.getRemoteSocketAddress());
-        new Thread(this).start();
+                s.getRemoteSocketAddress() + " using " +
+                (stream == null ? null : stream.getFormat()));
+        ThreadRunner.start(this);
     }
 
     /**
@@ -53,11 +66,16 @@ public class AuctionCommunicator implements Runnable{
                 " on thread: " + Thread.currentThread().getName());
         while(s.isConnected() && auctionHouse.isAlive()) {
             try {
-                AuctionRequest ar = (AuctionRequest) is.readObject();
-                processMessage(ar);
+                AuctionRequest ar = stream.read();
+
+                // Run it on a worker so the next request can be read while
+                // this one waits on the Bank
+                auctionHouse.getWorkers().execute(() -> processMessage(ar));
             } catch (IOException | ClassNotFoundException e) {
                 //e.printStackTrace();
                 System.out.println("Agent " + s + " disconnected from ");
+                auctionHouse.getFeed().unsubscribe(this);
+                if (pusher != null) pusher.interrupt();
                 break;
             }
         }
@@ -69,44 +87,11 @@ public class AuctionCommunicator implements Runnable{
      * @param ar AuctionRequest to handle
      */
     private void processMessage(AuctionRequest ar) {
-        System.out.println("THE TYPE OF REQUEST IS: " + ar.getType());
-        AuctionRequest resp =new AuctionRequest(ar.getType(),ar.getPacketID());
+        AuctionRequest resp = auctionHouse.getDispatcher().handle(ar, this);
 
         try {
-            // Switch on the types
-            switch (ar.getType()) {
-                case BID:
-                    // Bid the item and print results
-                    Bid bid = ar.getBid();
-                    bid.setAc(this);
-                    BidInfo status = auctionHouse.bid(bid);
-                    resp.setBidStatus(status);
-
-                    System.out.println("\tBid on item #" + bid.getItemID() +
-                            " with $" + bid.getAmount());
-                    System.out.println("\tThe bid was " + status);
-                    break;
-                case GET:
-                    // Get the items and display process
-                    resp.setItemInfo(auctionHouse.getItemInfo(ar.getItemID()));
-                    System.out.println("\tThe item #" + ar.getItemID() +
-                            " was gotten");
-                    break;
-                case GETALL:
-                    // Get the items and display process
-                    resp.setItems(auctionHouse.getItems());
-                    System.out.println("\tAll of the items were gotten");
-                    break;
-                case CLOSEREQUEST:
-                    // Request to close the client
-                    resp.setRequest(auctionHouse.closeRequest(ar.getItemID()));
-                    System.out.println("\tChecked if " + ar.getItemID() +
-                            " can leave");
-                    break;
-            }
-
             // Write out the object
-            os.writeObject(resp);
+            stream.write(resp);
             System.out.println("\tSent the response\n");
         } catch (IOException e) {
             System.out.println("Socket was disconnected");
@@ -120,6 +105,7 @@ public class AuctionCommunicator implements Runnable{
      * @param info item bid on
      * @param amount Amount of the bid
      */
+    @Override
     public void notifyBid(BidInfo status, ItemInfo info, double amount) {
         AuctionRequest ar = new AuctionRequest(AuctionInfo.BID);
         ar.setAck(false);
@@ -128,10 +114,51 @@ public class AuctionCommunicator implements Runnable{
         ar.setNewAmount(amount);
 
         try {
-            os.writeObject(ar);
+            stream.write(ar);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Queues a lot event the agent subscribed to for the push thread
+     *
+     * @param event Event to send
+     * @return false if the agent can't be reached anymore
+     */
+    @Override
+    public boolean push(AuctionRequest event) {
+        if (pushFailed) return false;
+
+        if (pusherStarted.compareAndSet(false, true)) {
+            pusher = ThreadRunner.start(this::writePushes);
+        }
+        return pushes.offer(event);
+    }
+
+    /**
+     * @return true if the push queue is full
+     */
+    @Override
+    public boolean isBacklogged() {
+        return pushes.remainingCapacity() == 0;
+    }
+
+    /**
+     * Writes queued pushes until the socket fails
+     */
+    private void writePushes() {
+        while (true) {
+            try {
+                stream.write(pushes.take());
+            } catch (IOException e) {
+                System.out.println("Could not push to " + s);
+                pushFailed = true;
+                pushes.clear();
+                return;
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
 }
@@ -0,0 +1,98 @@
+package AuctionHouse;
+
+import AuctionProxy.AuctionRequest;
+import AuctionProxy.BidInfo;
+
+/**
+ * Maps AuctionRequests onto the AuctionHouse and builds the responses.
+ * Shared by the threaded and the selector server modes.
+ */
+class AuctionDispatcher {
+
+    private AuctionHouse auctionHouse;
+
+    /**
+     * Dispatcher for the given house
+     *
+     * @param auctionHouse AuctionHouse to run requests against
+     */
+    AuctionDispatcher(AuctionHouse auctionHouse) {
+        this.auctionHouse = auctionHouse;
+    }
+
+    /**
+     * Process the AuctionRequest and create the response for it
+     *
+     * @param ar AuctionRequest to handle
+     * @param client Client that sent it, notified about its bids
+     * @return response to send back
+     */
+    AuctionRequest handle(AuctionRequest ar, AuctionClient client) {
+        System.out.println("THE TYPE OF REQUEST IS: " + ar.getType());
+        AuctionRequest resp =new AuctionRequest(ar.getType(),ar.getPacketID());
+
+        // Switch on the types
+        switch (ar.getType()) {
+            case BID:
+                // Bid the item and print results
+                Bid bid = ar.getBid();
+                bid.setAc(client);
+                BidInfo status = auctionHouse.bid(bid);
+                resp.setBidStatus(status);
+
+                System.out.println("\tBid on item #" + bid.getItemID() +
+                        " with $" + bid.getAmount());
+                System.out.println("\tThe bid was " + status);
+                break;
+            case GET:
+                // Get the items and display process
+                resp.setItemInfo(auctionHouse.getItemInfo(ar.getItemID()));
+                System.out.println("\tThe item #" + ar.getItemID() +
+                        " was gotten");
+                break;
+            case GETALL:
+                // Get the items and display process
+                resp.setCatalog(auctionHouse.getCatalog());
+                System.out.println("\tAll of the items were gotten");
+                break;
+            case GETCHANGES:
+                // Only what changed since the agent's version
+                resp.setCatalog(auctionHouse.getChanges(ar.getVersion()));
+                System.out.println("\tThe items changed since version " +
+                        ar.getVersion() + " were gotten");
+                break;
+            case SUBSCRIBE:
+                // Push changes from now on, starting from the whole catalog
+                auctionHouse.getFeed().subscribe(client);
+                resp.setCatalog(auctionHouse.getCatalog());
+                System.out.println("\tSubscribed to the items");
+                break;
+            case QUERY:
+                // One page of the lots that match
+                resp.setItems(auctionHouse.query(ar.getQuery()));
+                System.out.println("\tQueried " + resp.getItems().size() +
+                        " items");
+                break;
+            case WATCH:
+                // Push the changes of just this lot, while it's open
+                resp.setRequest(auctionHouse.getItemInfo(ar.getItemID())
+                        != null && auctionHouse.getFeed().watch(client,
+                        ar.getItemID()));
+                System.out.println("\tWatching item #" + ar.getItemID());
+                break;
+            case UNWATCH:
+                auctionHouse.getFeed().unwatch(client, ar.getItemID());
+                System.out.println("\tStopped watching item #" +
+                        ar.getItemID());
+                break;
+            case CLOSEREQUEST:
+                // Request to close the client
+                resp.setRequest(auctionHouse.closeRequest(ar.getItemID()));
+                System.out.println("\tChecked if " + ar.getItemID() +
+                        " can leave");
+                break;
+        }
+
+        return resp;
+    }
+}
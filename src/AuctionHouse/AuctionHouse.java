@@ -1,17 +1,31 @@
 package AuctionHouse;
 
+import AuctionProxy.AuctionCodec;
+import AuctionProxy.AuctionInfo;
 import AuctionProxy.AuctionProcess;
+import AuctionProxy.AuctionRequest;
 import AuctionProxy.BidInfo;
+import AuctionProxy.ItemQuery;
 import BankProxy.BankProxy;
 import Network.NetworkDevice;
+import Network.PacketStream;
+import Network.SelectorServer;
+import Concurrency.HashedWheelTimer;
+import Concurrency.ThreadRunner;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import static Agent.AgentApp.auctionPort;
 import static Agent.AgentApp.bankPort;
 
@@ -20,16 +34,73 @@ public class AuctionHouse implements AuctionProcess {
     // User can set this in the parameters
     public static long waitTime = 50000;
 
+    // Requests are run on this many workers, so one connection can have
+    // several requests in flight
+    private static final int WORKER_THREADS = 32;
+
+    // Every item's closing deadline shares one timer wheel, and closings run
+    // on a few threads of their own since they call out to the Bank
+    private static final long TIMER_TICK = 10;
+    private static final int TIMER_WHEEL_SIZE = 1024;
+    private static final int CLOSING_THREADS = 4;
+
+    // Busy items' mailboxes are handed to these, which never wait on a bid
+    // so they can't be stuck behind the workers
+    private static final int DRAIN_THREADS = 4;
+
+    // Bank calls that pile up while one is being sent go out together, so
+    // lots closing at once settle in a few round trips
+    private static final int BANK_BATCH_SIZE = 64;
+
+    // Connections to the Bank, calls go to the least busy one
+    private static final int BANK_CONNECTIONS = 4;
+
+    // Catalog changes kept for agents syncing from an older version, one
+    // further behind gets the whole catalog
+    private static final int CATALOG_HISTORY = 4096;
+
     private ConcurrentHashMap<Integer, Item> items =
             new ConcurrentHashMap<Integer, Item>();
     private ArrayList<Item> itemsNotUpForAuction = new ArrayList<Item>();
     private LinkedBlockingQueue<ItemInfo> itemInfos =
             new LinkedBlockingQueue<ItemInfo>();
-    private LinkedBlockingQueue<Bid> bids = new LinkedBlockingQueue<>();
     private BankProxy bankProxy;
-    private int auctionID = 0;
+
+    // Live lots as last handed out, rebuilt on the next read once a lot
+    // opens, closes or changes price. Versions start from the clock so an
+    // agent's version from before a restart is never mistaken for a new one.
+    private final long firstVersion = System.currentTimeMillis() * 1000;
+    private AtomicLong catalogVersion = new AtomicLong(firstVersion);
+    private volatile CatalogSnapshot catalog =
+            new CatalogSnapshot(-1, new ArrayList<ItemInfo>());
+    private final Object catalogLock = new Object();
+
+    // Lot changed by each recent version, the first one is for the version
+    // after historyStart
+    private ArrayDeque<Integer> catalogHistory = new ArrayDeque<>();
+    private long historyStart = firstVersion;
+
+    // Live lots by name and by price for queries
+    private CatalogIndex index = new CatalogIndex();
+
+    private int auctionID = -1;
     private static int counter = 0;
     private boolean alive;
+    private AuctionDispatcher dispatcher = new AuctionDispatcher(this);
+    private ExecutorService workers = ThreadRunner.newPool(WORKER_THREADS);
+    private ExecutorService drainers = ThreadRunner.newPool(DRAIN_THREADS);
+    private HashedWheelTimer timer = new HashedWheelTimer(TIMER_TICK,
+            TIMER_WHEEL_SIZE, ThreadRunner.newPool(CLOSING_THREADS));
+
+    // Agents that get catalog changes pushed to them
+    private LotFeed feed = new LotFeed(timer);
+
+    // Log of lot opens, bids and closes, null when nothing is logged
+    private EventLog eventLog;
+
+    // Items that were open when the house went down, by item ID
+    private HashMap<Integer, RecoveredLot> recovered = new HashMap<>();
+    private int highestOpened = -1;
 
     /**
      * Constructor initializing an AuctionHouse
@@ -39,15 +110,87 @@ public class AuctionHouse implements AuctionProcess {
      * @param bankPort Bank's port
      */
     public AuctionHouse(int operatingPort, String bankHostname, int bankPort) {
+        this(operatingPort, bankHostname, bankPort, 0);
+    }
+
+    /**
+     * Constructor initializing an AuctionHouse
+     *
+     * With selectorThreads above zero every agent connection is multiplexed
+     * over that many selector threads instead of getting a thread of its own.
+     *
+     * @param operatingPort Port of auctionhouse
+     * @param bankHostname Bank's hostname
+     * @param bankPort Bank's port
+     * @param selectorThreads Number of selector threads, 0 for one thread
+     *                        per connection
+     */
+    public AuctionHouse(int operatingPort, String bankHostname, int bankPort,
+                        int selectorThreads) {
+        this(operatingPort, bankHostname, bankPort, selectorThreads, null);
+    }
+
+    /**
+     * Constructor initializing an AuctionHouse
+     *
+     * With an event log directory the house logs what happens to its lots
+     * and, when started again, reopens the lots that were still open with
+     * their leading bids.
+     *
+     * @param operatingPort Port of auctionhouse
+     * @param bankHostname Bank's hostname
+     * @param bankPort Bank's port
+     * @param selectorThreads Number of selector threads, 0 for one thread
+     *                        per connection
+     * @param eventLogDirectory Directory of the event log, null for none
+     */
+    public AuctionHouse(int operatingPort, String bankHostname, int bankPort,
+                        int selectorThreads, String eventLogDirectory) {
         alive = true;
-        bankProxy = new BankProxy(bankHostname, bankPort, null);
+        bankProxy = new BankProxy(bankHostname, bankPort, null,
+                PacketStream.defaultFormat, BANK_CONNECTIONS);
+        bankProxy.setBatching(0, BANK_BATCH_SIZE);
+        bankProxy.setLeaseLostHandler(this::readoptLocks);
+
+        // Pick up where the last run stopped
+        if (eventLogDirectory != null) {
+            openEventLog(eventLogDirectory);
+        }
 
         // Make a bank account for the auction house
-        bankProxy.addAccount();
+        if (auctionID == -1) {
+            auctionID = bankProxy.addAccount();
+            if (auctionID == -1) {
+                System.out.println("Couldn't open a bank account, sales " +
+                        "can't be paid");
+            }
+        }
+
+        // Only what's still open is kept in the log
+        if (eventLog != null) {
+            compactEventLog();
+        }
 
         // Read items this house will sell
         readInItems();
 
+        // Non-blocking mode runs on its own threads
+        if (selectorThreads > 0) {
+            try {
+                SelectorServer<AuctionRequest> server = new SelectorServer<>(
+                        operatingPort, selectorThreads, new AuctionCodec(),
+                        new AuctionSelectorHandler(this));
+                server.start();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+
+            bankProxy.openServer(
+                    new NetworkDevice("127.0.0.1",operatingPort));
+            return;
+        }
+
         ServerSocket ss = null;
         try {
             ss = new ServerSocket(operatingPort);
@@ -72,11 +215,118 @@ public class AuctionHouse implements AuctionProcess {
 
     }
 
+    /**
+     * Reads the event log and works out which lots were still open, then
+     * checks their leading bids' locks with the Bank
+     *
+     * @param directory Directory of the event log
+     */
+    private void openEventLog(String directory) {
+        File dir = new File(directory);
+        dir.mkdirs();
+
+        ArrayList<EventLog.Event> events;
+        try {
+            eventLog = new EventLog(new File(dir, "events.log"));
+            events = eventLog.open();
+        } catch (IOException e) {
+            e.printStackTrace();
+            eventLog = null;
+            return;
+        }
+
+        for (EventLog.Event event : events) {
+            RecoveredLot lot = recovered.get(event.itemID);
+
+            switch (event.type) {
+                case EventLog.ACCOUNT:
+                    auctionID = event.account;
+                    highestOpened = Math.max(highestOpened, event.itemID);
+                    break;
+                case EventLog.OPEN:
+                    recovered.put(event.itemID, new RecoveredLot(event));
+                    highestOpened = Math.max(highestOpened, event.itemID);
+                    break;
+                case EventLog.BID:
+                    if (lot != null) lot.lead = event;
+                    break;
+                case EventLog.OUTBID:
+                    // The new lead's BID follows, only clear a lead that
+                    // was never replaced
+                    if (lot != null && lot.lead != null &&
+                            lot.lead.account == event.account &&
+                            lot.lead.lockID == event.lockID) {
+                        lot.lead = null;
+                    }
+                    break;
+                case EventLog.CLOSE:
+                    if (lot != null) lot.closed = true;
+                    break;
+                case EventLog.SETTLE:
+                    recovered.remove(event.itemID);
+                    break;
+            }
+        }
+
+        // A lead only counts if the Bank still holds its lock
+        for (RecoveredLot lot : new ArrayList<>(recovered.values())) {
+            if (lot.lead == null) continue;
+
+            // Same amount, so the lock is only checked, not changed
+            if (bankProxy.adjustLock(lot.lead.account, lot.lead.lockID,
+                    lot.lead.amount)) {
+                continue;
+            }
+
+            if (lot.closed) {
+                // The money moved before the settle was logged
+                recovered.remove(lot.open.itemID);
+            } else {
+                System.out.println("Dropped lead of " + lot.open.name +
+                        ", its lock is gone");
+                lot.lead = null;
+            }
+        }
+
+        System.out.println("Read " + events.size() + " events, " +
+                recovered.size() + " lots still open");
+    }
+
+    /**
+     * Starts the event log over with the house's account and the lots that
+     * are still open
+     */
+    private void compactEventLog() {
+        ArrayList<EventLog.Event> events = new ArrayList<>();
+        // The account event also keeps how far through the items it got
+        events.add(new EventLog.Event(EventLog.ACCOUNT,
+                System.currentTimeMillis(), highestOpened, auctionID, 0, 0,
+                null));
+
+        for (RecoveredLot lot : recovered.values()) {
+            events.add(lot.open);
+            if (lot.lead != null) events.add(lot.lead);
+            if (lot.closed) {
+                events.add(new EventLog.Event(EventLog.CLOSE, lot.open.time,
+                        lot.open.itemID, 0, 0, 0, null));
+            }
+        }
+
+        try {
+            eventLog.rewrite(events);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Read in the items from test file.
      * File should be placed in 'resources' directory
      * Saves 3 items to list of currently auctioned items
      * and saves the rest to a list to be used later.
+     *
+     * Items the event log still has open are put back as they were, ones
+     * it already sold are skipped.
      */
     private void readInItems() {
         try {
@@ -86,7 +336,7 @@ public class AuctionHouse implements AuctionProcess {
             String line;
             String[] lineArr;
 
-            int itemNum = 0;
+            int itemNum = recovered.size();
 
             // Read in the items
             while ((line = br.readLine()) != null){
@@ -96,13 +346,27 @@ public class AuctionHouse implements AuctionProcess {
                 ItemInfo itemInfo = new ItemInfo(lineArr[0],
                         Integer.parseInt(lineArr[1]), counter++);
                 Item item = new Item(bankProxy, this,itemInfo,auctionID);
+                RecoveredLot lot = recovered.get(item.getItemID());
 
-                // Start the first three item threads
-                if(itemNum < 3){
+                // Put back the ones that were open
+                if (lot != null) {
+                    lot.restore(item);
                     itemInfos.add(itemInfo);
                     System.out.println(itemInfo);
                     items.put(item.getItemID(), item);
-                    item.startThread();
+                    catalogChanged(AuctionInfo.LOTOPENED, itemInfo);
+                }
+                // Items open in order, so earlier ones were already sold
+                else if (item.getItemID() <= highestOpened) {
+                    continue;
+                }
+                // Start the first three item timers
+                else if(itemNum < 3){
+                    itemInfos.add(itemInfo);
+                    System.out.println(itemInfo);
+                    items.put(item.getItemID(), item);
+                    openItem(item);
+                    catalogChanged(AuctionInfo.LOTOPENED, itemInfo);
                     itemNum++;
                 }
                 else {
@@ -115,6 +379,21 @@ public class AuctionHouse implements AuctionProcess {
         }
     }
 
+    /**
+     * Puts the lock of every lead back on the house's lease, after the Bank
+     * lost the lease
+     */
+    private void readoptLocks() {
+        ArrayList<Item> open = new ArrayList<>(items.values());
+
+        int kept = 0;
+        for (Item item : open) {
+            if (item.readoptLead() == BidInfo.ACCEPTANCE) kept++;
+        }
+        System.out.println("Put the leads of " + kept + " of " +
+                open.size() + " lots back on the lease");
+    }
+
     /**
      * Remove an item when done
      *
@@ -123,8 +402,11 @@ public class AuctionHouse implements AuctionProcess {
     public synchronized void removeItem(int itemID) {
         if (items.containsKey(itemID)) {
 
-            itemInfos.remove(items.get(itemID).getItemInfo());
+            ItemInfo closed = items.get(itemID).getItemInfo();
+            itemInfos.remove(closed);
             items.remove(itemID);
+            logEvent(EventLog.SETTLE, itemID, 0, 0, 0, null);
+            catalogChanged(AuctionInfo.LOTCLOSED, closed);
 
             // Add a new item to replace it
             if(!itemsNotUpForAuction.isEmpty()) {
@@ -133,7 +415,8 @@ public class AuctionHouse implements AuctionProcess {
                 ItemInfo itemInfo = itemUp.getItemInfo();
                 itemInfos.add(itemInfo);
                 items.put(itemUp.getItemID(), itemUp);
-                itemUp.startThread();
+                openItem(itemUp);
+                catalogChanged(AuctionInfo.LOTOPENED, itemInfo);
 
             }
             else {
@@ -158,19 +441,37 @@ public class AuctionHouse implements AuctionProcess {
 
         // Get the item to be bid upon
         Item item = items.get(bid.getItemID());
-        BidInfo info = item.setBid(bid);
-        addBid(bid);
+        return item.setBid(bid);
+    }
 
-        return info;
+    /**
+     * Starts an item's timer and logs that it opened
+     *
+     * @param item Item to put up for auction
+     */
+    private void openItem(Item item) {
+        ItemInfo itemInfo = item.getItemInfo();
+        logEvent(EventLog.OPEN, item.getItemID(), 0, 0, itemInfo.getPrice(),
+                itemInfo.getName());
+        item.startTimer();
     }
 
     /**
-     * Add the bid
+     * Logs an event if the house keeps an event log, without waiting for it
+     * to reach the disk
      *
-     * @param bid bid to synchronously add
+     * @param type Event type
+     * @param itemID Item it's about
+     * @param account Account it's about
+     * @param lockID Bank lock of the bid
+     * @param amount Amount of the bid, or starting price
+     * @param name Name of the item, only for OPEN
      */
-    private void addBid(Bid bid){
-        bids.add(bid);
+    void logEvent(byte type, int itemID, int account, int lockID,
+                  double amount, String name) {
+        if (eventLog != null) {
+            eventLog.append(type, itemID, account, lockID, amount, name);
+        }
     }
 
     /**
@@ -196,13 +497,128 @@ public class AuctionHouse implements AuctionProcess {
      */
     @Override
     public ArrayList<ItemInfo> getItems() {
-        ArrayList<ItemInfo> items = new ArrayList<ItemInfo>();
-        for (ItemInfo item : this.itemInfos) {
-            items.add((ItemInfo) item.clone());
+        return new ArrayList<ItemInfo>(getCatalog().getItems());
+    }
+
+    /**
+     * Gets the live lots as of the latest catalog version. Only the first
+     * read after a change copies the lots, everyone after that shares it.
+     *
+     * @return snapshot of the live lots
+     */
+    CatalogSnapshot getCatalog() {
+        CatalogSnapshot current = catalog;
+        if (current.getVersion() == catalogVersion.get()) return current;
+
+        synchronized (catalogLock) {
+            // Someone else may have rebuilt it while we waited
+            long version = catalogVersion.get();
+            current = catalog;
+            if (current.getVersion() == version) return current;
+
+            ArrayList<ItemInfo> copies = new ArrayList<ItemInfo>();
+            for (ItemInfo item : this.itemInfos) {
+                synchronized (item) { copies.add((ItemInfo) item.clone()); }
+            }
+
+            // A change during the copy bumps the version again, so the
+            // next read rebuilds
+            current = new CatalogSnapshot(version, copies);
+            catalog = current;
+            return current;
+        }
+    }
+
+    /**
+     * Gets what changed in the catalog since an agent's version. An agent
+     * too far behind, or with more changes than there are lots, gets the
+     * whole catalog instead.
+     *
+     * @param since Version the agent has, anything unknown for none
+     * @return changes since that version, or a full snapshot
+     */
+    CatalogSnapshot getChanges(long since) {
+        LinkedHashSet<Integer> changed = new LinkedHashSet<>();
+        long version;
+        synchronized (catalogHistory) {
+            version = catalogVersion.get();
+            if (since < historyStart || since > version) return getCatalog();
+
+            // Skip what the agent already has
+            long skip = since - historyStart;
+            for (int itemID : catalogHistory) {
+                if (skip-- <= 0) changed.add(itemID);
+            }
+        }
+        if (changed.size() >= items.size()) return getCatalog();
+
+        // Lots as they are now, which may already be past the version
+        ArrayList<ItemInfo> copies = new ArrayList<ItemInfo>();
+        ArrayList<Integer> removed = new ArrayList<Integer>();
+        for (int itemID : changed) {
+            Item item = items.get(itemID);
+            if (item == null) {
+                removed.add(itemID);
+                continue;
+            }
+            ItemInfo info = item.getItemInfo();
+            synchronized (info) { copies.add((ItemInfo) info.clone()); }
+        }
+        return new CatalogSnapshot(version, copies, removed);
+    }
+
+    /**
+     * Called after a lot opens, closes or changes price so the next read of
+     * the catalog picks it up, and pushes the change to subscribed agents
+     *
+     * @param type LOTOPENED, PRICECHANGED or LOTCLOSED
+     * @param info Lot that changed
+     */
+    void catalogChanged(AuctionInfo type, ItemInfo info) {
+        AuctionRequest event = new AuctionRequest(type);
+        event.setAck(false);
+        synchronized (info) { event.setItemInfo((ItemInfo) info.clone()); }
+
+        synchronized (catalogHistory) {
+            event.setVersion(catalogVersion.incrementAndGet());
+            catalogHistory.addLast(info.getItemID());
+
+            // The copy is never changed, so the index can share it
+            if (type == AuctionInfo.LOTCLOSED) {
+                index.remove(info.getItemID());
+            } else {
+                index.update(event.getItem());
+            }
+
+            // Forget the oldest change
+            if (catalogHistory.size() > CATALOG_HISTORY) {
+                catalogHistory.removeFirst();
+                historyStart++;
+            }
+
+            // Queued in version order
+            feed.publish(event);
         }
-        return items;
+    }
+
+    /**
+     * @return feed of catalog changes
+     */
+    LotFeed getFeed() {
+        return feed;
+    }
 
+    /**
+     * Gets one page of the live lots that match a query
+     *
+     * @param query Name prefix, price range, order and page to get
+     * @return lots on the page, in order
+     */
+    @Override
+    public ArrayList<ItemInfo> query(ItemQuery query) {
+        if (query == null) return new ArrayList<ItemInfo>();
 
+        return index.query(query);
     }
 
     /**
@@ -221,6 +637,34 @@ public class AuctionHouse implements AuctionProcess {
         return true;
     }
 
+    /**
+     * @return dispatcher that runs requests against this house
+     */
+    AuctionDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * @return pool that runs agent requests
+     */
+    ExecutorService getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @return pool busy items' mailboxes are drained on
+     */
+    ExecutorService getDrainers() {
+        return drainers;
+    }
+
+    /**
+     * @return timer that closes the items
+     */
+    HashedWheelTimer getTimer() {
+        return timer;
+    }
+
     /**
      * @return state of auction house
      */
@@ -229,29 +673,40 @@ public class AuctionHouse implements AuctionProcess {
     }
 
     /**
-     * Starts a new Auction House
+     * Starts a new Auction House. An optional fifth argument
+     * runs the house on that many selector threads, an optional sixth
+     * keeps an event log in that directory.
      * @param args Args to take
      */
     public static void main(String[] args) {
 
-        if (args.length == 4) {
+        if (args.length >= 4 && args.length <= 6) {
 
             int operatingPort;
             int bankPort;
+            int selectorThreads = 0;
+            String eventLogDirectory = null;
 
             try {
                 operatingPort = Integer.parseInt(args[0]);
                 bankPort = Integer.parseInt(args[2]);
                 waitTime = Long.parseLong(args[3]);
+                if (args.length >= 5) {
+                    selectorThreads = Integer.parseInt(args[4]);
+                }
+                if (args.length == 6) {
+                    eventLogDirectory = args[5];
+                }
 
             } catch (NumberFormatException e) {
                 System.out.println("Input not correct:\n Correct usage: Auct" +
                         "ionHouse <Operating Port> <Bank Host> <Bank Port> <" +
-                        "Wait Time>");
+                        "Wait Time> [Selector Threads] [Event Log Directory]");
                 return;
             }
 
-            AuctionHouse ah = new AuctionHouse(operatingPort,args[1],bankPort);
+            AuctionHouse ah = new AuctionHouse(operatingPort, args[1],
+                    bankPort, selectorThreads, eventLogDirectory);
 
         } else {
             AuctionHouse ah = new AuctionHouse(auctionPort, "localhost",
@@ -259,4 +714,42 @@ public class AuctionHouse implements AuctionProcess {
         }
 
     }
+
+    /**
+     * Lot the event log still had open, with its leading bid if any
+     */
+    private static class RecoveredLot {
+
+        private final EventLog.Event open;
+        private EventLog.Event lead;
+        private boolean closed;
+
+        /**
+         * @param open Event of the lot opening
+         */
+        private RecoveredLot(EventLog.Event open) {
+            this.open = open;
+        }
+
+        /**
+         * Puts the lot's lead and remaining time back on the item. The
+         * deadline runs from the last thing that happened to it, a closed
+         * lot settles straight away.
+         *
+         * @param item Item made for this lot
+         */
+        private void restore(Item item) {
+            Bid bid = null;
+            long last = open.time;
+            if (lead != null) {
+                bid = new Bid(lead.amount, lead.account, open.itemID);
+                bid.setLockID(lead.lockID);
+                last = lead.time;
+            }
+
+            long remaining = closed ? 0 :
+                    last + waitTime - System.currentTimeMillis();
+            item.restore(bid, remaining);
+        }
+    }
 }
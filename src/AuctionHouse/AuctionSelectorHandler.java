@@ -0,0 +1,148 @@
+package AuctionHouse;
+
+import AuctionProxy.AuctionInfo;
+import AuctionProxy.AuctionRequest;
+import AuctionProxy.BidInfo;
+import Network.PacketHandler;
+import Network.SelectorConnection;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Handles AuctionHouse connections in selector mode.
+ *
+ * Bids wait on the Bank, so requests are handed from the selector threads to
+ * the house's worker pool. Responses and OUTBID/WINNER pushes are only queued on the
+ * connection and written out by its event loop, so a slow agent never
+ * blocks a worker or an item.
+ */
+class AuctionSelectorHandler implements PacketHandler<AuctionRequest> {
+
+    // Pushes are held back while this much is queued for an agent
+    private static final long PUSH_BACKLOG = 64 * 1024;
+
+    private AuctionHouse auctionHouse;
+    private ConcurrentHashMap<SelectorConnection<AuctionRequest>, Session>
+            sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Handler for the given house
+     *
+     * @param auctionHouse AuctionHouse to run requests against
+     */
+    AuctionSelectorHandler(AuctionHouse auctionHouse) {
+        this.auctionHouse = auctionHouse;
+    }
+
+    /**
+     * Creates the session of a new connection
+     *
+     * @param connection New connection
+     */
+    @Override
+    public void connected(SelectorConnection<AuctionRequest> connection) {
+        sessions.put(connection, new Session(connection));
+        System.out.println("Created auction session for " +
+                connection.getRemoteAddress());
+    }
+
+    /**
+     * Hands the request to a worker and queues its response
+     *
+     * @param connection Connection it arrived on
+     * @param ar Request that was decoded
+     */
+    @Override
+    public void received(SelectorConnection<AuctionRequest> connection,
+                         AuctionRequest ar) {
+        Session session = sessions.get(connection);
+        if (session == null) return;
+
+        auctionHouse.getWorkers().execute(() -> {
+            AuctionRequest resp =
+                    auctionHouse.getDispatcher().handle(ar, session);
+            try {
+                connection.send(resp);
+                System.out.println("\tQueued the response\n");
+            } catch (IOException e) {
+                System.out.println("Socket was disconnected");
+            }
+        });
+    }
+
+    /**
+     * Forgets a closed connection
+     *
+     * @param connection Connection that closed
+     */
+    @Override
+    public void disconnected(SelectorConnection<AuctionRequest> connection) {
+        Session session = sessions.remove(connection);
+        if (session != null) auctionHouse.getFeed().unsubscribe(session);
+        System.out.println("Agent " + connection.getRemoteAddress() +
+                " disconnected");
+    }
+
+    /**
+     * Client wrapping a selector connection
+     */
+    private static class Session implements AuctionClient {
+
+        private SelectorConnection<AuctionRequest> connection;
+
+        /**
+         * @param connection Connection of the session
+         */
+        Session(SelectorConnection<AuctionRequest> connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * Queues a bid notification, encoded right away so the item's
+         * current state is what gets sent
+         *
+         * @param status bid status
+         * @param info item bid on
+         * @param amount Amount of the bid
+         */
+        @Override
+        public void notifyBid(BidInfo status, ItemInfo info, double amount) {
+            AuctionRequest ar = new AuctionRequest(AuctionInfo.BID);
+            ar.setAck(false);
+            ar.setBidStatus(status);
+            ar.setItemInfo(info);
+            ar.setNewAmount(amount);
+
+            try {
+                connection.send(ar);
+            } catch (IOException e) {
+                System.out.println("Could not notify " +
+                        connection.getRemoteAddress());
+            }
+        }
+
+        /**
+         * Queues a lot event the agent subscribed to
+         *
+         * @param event Event to send
+         * @return false if the connection is closed
+         */
+        @Override
+        public boolean push(AuctionRequest event) {
+            try {
+                connection.send(event);
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        /**
+         * @return true if too much is queued on the connection
+         */
+        @Override
+        public boolean isBacklogged() {
+            return connection.getQueuedBytes() > PUSH_BACKLOG;
+        }
+    }
+}
@@ -1,7 +1,5 @@
 package AuctionHouse;
 
-import AuctionHouse.AuctionCommunicator;
-
 import java.io.Serializable;
 
 /**
@@ -13,7 +11,7 @@ public class Bid implements Serializable {
     private int accountNumber;
     private int lockID;
     private int itemID;
-    private AuctionCommunicator ac;
+    private transient AuctionClient ac;
 
     /**
      * Constructor for a bid object
@@ -67,14 +65,14 @@ public class Bid implements Serializable {
     /**
      * @return get Auction this bid corresponds to
      */
-    public AuctionCommunicator getAc() {
+    public AuctionClient getAc() {
         return ac;
     }
 
     /**
      * @param ac set the Auction this bid corresponds to
      */
-    public void setAc(AuctionCommunicator ac) {
+    public void setAc(AuctionClient ac) {
         this.ac = ac;
     }
 
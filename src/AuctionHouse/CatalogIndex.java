@@ -0,0 +1,147 @@
+package AuctionHouse;
+
+import AuctionProxy.ItemQuery;
+import AuctionProxy.ItemSort;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The house's live lots sorted by name and by price, so a query reads one
+ * page straight out of the right order instead of sorting the catalog.
+ *
+ * Kept up to date one lot at a time as lots open, change price and close.
+ * Queries don't lock, a lot moving to a new price while a page is read is
+ * only returned once.
+ */
+class CatalogIndex {
+
+    // Most lots on one page
+    private static final int MAX_PAGE = 500;
+
+    // Copy of every live lot, by item ID and in both orders
+    private ConcurrentHashMap<Integer, ItemInfo> current =
+            new ConcurrentHashMap<>();
+    private ConcurrentSkipListMap<ItemInfo, ItemInfo> byName =
+            new ConcurrentSkipListMap<>(ItemQuery.order(ItemSort.NAME));
+    private ConcurrentSkipListMap<ItemInfo, ItemInfo> byPrice =
+            new ConcurrentSkipListMap<>(ItemQuery.order(ItemSort.PRICE));
+
+    /**
+     * Adds a lot that opened or moves one that changed price. Changes of
+     * the same lot must not run at once.
+     *
+     * @param info Copy of the lot, not changed after this
+     */
+    void update(ItemInfo info) {
+        ItemInfo old = current.put(info.getItemID(), info);
+        move(byName, old, info);
+        move(byPrice, old, info);
+    }
+
+    /**
+     * Drops a lot that closed
+     *
+     * @param itemID Lot that closed
+     */
+    void remove(int itemID) {
+        ItemInfo old = current.remove(itemID);
+        if (old != null) {
+            byName.remove(old);
+            byPrice.remove(old);
+        }
+    }
+
+    /**
+     * Puts a lot's new copy in one order, before taking the old one out so
+     * a query never misses it
+     *
+     * @param index Order to change
+     * @param old Old copy, null if the lot just opened
+     * @param info New copy
+     */
+    private static void move(ConcurrentSkipListMap<ItemInfo, ItemInfo> index,
+                             ItemInfo old, ItemInfo info) {
+        index.put(info, info);
+        if (old != null && index.comparator().compare(old, info) != 0) {
+            index.remove(old);
+        }
+    }
+
+    /**
+     * Reads one page of lots
+     *
+     * @param query What to look up
+     * @return lots on the page, in the query's order
+     */
+    ArrayList<ItemInfo> query(ItemQuery query) {
+        int limit = Math.max(0, Math.min(query.getLimit(), MAX_PAGE));
+        String prefix = query.getPrefix();
+        Comparator<ItemInfo> order = ItemQuery.order(query.getSort());
+
+        // Where in the order the first match can be
+        NavigableMap<ItemInfo, ItemInfo> view;
+        ItemInfo start;
+        switch (query.getSort()) {
+            case NAME:
+                view = byName;
+                start = prefix == null ? null :
+                        new ItemInfo(prefix, 0, Integer.MIN_VALUE);
+                break;
+            case PRICE_DESCENDING:
+                view = byPrice.descendingMap();
+                start = new ItemInfo("", query.getMaxPrice(),
+                        Integer.MAX_VALUE);
+                break;
+            default:
+                view = byPrice;
+                start = new ItemInfo("", query.getMinPrice(),
+                        Integer.MIN_VALUE);
+                break;
+        }
+
+        // Carry on after the last page unless that's before the start
+        ItemInfo after = query.getAfter();
+        if (after != null &&
+                (start == null || order.compare(after, start) >= 0)) {
+            view = view.tailMap(after, false);
+        } else if (start != null) {
+            view = view.tailMap(start, true);
+        }
+
+        ArrayList<ItemInfo> page = new ArrayList<>();
+        HashSet<Integer> added = new HashSet<>();
+        for (ItemInfo info : view.values()) {
+            if (page.size() >= limit || pastEnd(query, info)) break;
+
+            if (query.matches(info) && added.add(info.getItemID())) {
+                page.add(info);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Checks whether a lot is past the last one the query can match, since
+     * the rest of the order can't match either
+     *
+     * @param query What is looked up
+     * @param info Lot reached
+     * @return true once nothing further can match
+     */
+    private static boolean pastEnd(ItemQuery query, ItemInfo info) {
+        switch (query.getSort()) {
+            case NAME:
+                String prefix = query.getPrefix();
+                return prefix != null && !info.getName().regionMatches(
+                        true, 0, prefix, 0, prefix.length());
+            case PRICE_DESCENDING:
+                return info.getPrice() < query.getMinPrice();
+            default:
+                return info.getPrice() > query.getMaxPrice();
+        }
+    }
+}
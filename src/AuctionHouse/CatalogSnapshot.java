@@ -0,0 +1,102 @@
+package AuctionHouse;
+
+import AuctionProxy.AuctionCodec;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Copy of the house's live lots at one catalog version
+ *
+ * Never changed once built, so one snapshot is handed to every GETALL until
+ * a lot opens, closes or changes price. The binary form of the lots is
+ * worked out the first time it's needed and written as is after that.
+ *
+ * A partial snapshot only holds the lots that opened or changed price since
+ * some older version, and the IDs of the ones that closed.
+ */
+public class CatalogSnapshot {
+
+    private final long version;
+    private final ArrayList<ItemInfo> items;
+    private final ArrayList<Integer> removed;
+    private volatile byte[] encoded;
+
+    /**
+     * Constructor for a snapshot of the whole catalog
+     *
+     * @param version Catalog version the lots were copied at
+     * @param items Copies of the live lots, not changed after this
+     */
+    CatalogSnapshot(long version, ArrayList<ItemInfo> items) {
+        this(version, items, null);
+    }
+
+    /**
+     * Constructor for a snapshot of the changes since an older version
+     *
+     * @param version Catalog version the lots were copied at
+     * @param items Copies of the lots that opened or changed
+     * @param removed IDs of the lots that closed, null for a full snapshot
+     */
+    CatalogSnapshot(long version, ArrayList<ItemInfo> items,
+                    ArrayList<Integer> removed) {
+        this.version = version;
+        this.items = items;
+        this.removed = removed;
+    }
+
+    /**
+     * Gets the catalog version
+     *
+     * @return version the lots were copied at
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the lots, shared with every other holder of the snapshot so
+     * they must not be changed
+     *
+     * @return live lots
+     */
+    public ArrayList<ItemInfo> getItems() {
+        return items;
+    }
+
+    /**
+     * Gets the IDs of the lots that closed
+     *
+     * @return closed lots, null for a full snapshot
+     */
+    public ArrayList<Integer> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Checks whether this is the whole catalog
+     *
+     * @return true unless it only holds changes
+     */
+    public boolean isFull() {
+        return removed == null;
+    }
+
+    /**
+     * Gets the lots in the binary wire format
+     *
+     * Two threads may both encode it the first time, either result is the
+     * same so the race is harmless.
+     *
+     * @return encoded lots
+     * @throws IOException if encoding fails
+     */
+    public byte[] getEncoded() throws IOException {
+        byte[] bytes = encoded;
+        if (bytes == null) {
+            bytes = AuctionCodec.encodeItems(items);
+            encoded = bytes;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,284 @@
+package AuctionHouse;
+
+import Concurrency.ThreadRunner;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only log of what happened to the house's lots, read back after a
+ * crash to rebuild the open auctions.
+ *
+ * Appending only copies the event into a buffer, a writer thread swaps the
+ * buffer out and writes and forces it as one batch every few milliseconds,
+ * so a bid never waits on the disk.
+ *
+ * Each event is framed by its length, a torn last event is cut off when the
+ * log is read back.
+ */
+class EventLog implements Runnable {
+
+    // Event types
+    static final byte ACCOUNT = 1;
+    static final byte OPEN = 2;
+    static final byte BID = 3;
+    static final byte OUTBID = 4;
+    static final byte CLOSE = 5;
+    static final byte SETTLE = 6;
+
+    // Longest a batch waits before it's written
+    private static final long BATCH_MILLIS = 5;
+
+    private File file;
+    private FileChannel channel;
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private DataOutputStream out = new DataOutputStream(buffer);
+    private ByteArrayOutputStream event = new ByteArrayOutputStream();
+    private DataOutputStream eventOut = new DataOutputStream(event);
+
+    private ReentrantLock lock = new ReentrantLock();
+    private Condition appended = lock.newCondition();
+
+    /**
+     * One event read back from the log
+     */
+    static class Event {
+
+        final byte type;
+        final long time;
+        final int itemID;
+        final int account;
+        final int lockID;
+        final double amount;
+        final String name;
+
+        /**
+         * @param type Event type
+         * @param time When it happened, in milliseconds since the epoch
+         * @param itemID Item it's about
+         * @param account Account it's about
+         * @param lockID Bank lock of the bid
+         * @param amount Amount of the bid, or starting price
+         * @param name Name of the item, only for OPEN
+         */
+        Event(byte type, long time, int itemID, int account, int lockID,
+              double amount, String name) {
+            this.type = type;
+            this.time = time;
+            this.itemID = itemID;
+            this.account = account;
+            this.lockID = lockID;
+            this.amount = amount;
+            this.name = name;
+        }
+    }
+
+    /**
+     * Log in the given file, made if missing. Nothing is written before
+     * it's read back.
+     *
+     * @param file Log file
+     */
+    EventLog(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads back every whole event, cuts off a torn tail and starts the
+     * writer
+     *
+     * @return events in the order they were logged
+     * @throws IOException if the log can't be read
+     */
+    ArrayList<Event> open() throws IOException {
+        ArrayList<Event> events = new ArrayList<>();
+        channel = new RandomAccessFile(file, "rw").getChannel();
+
+        long valid = 0;
+        long size = channel.size();
+        ByteBuffer frame = ByteBuffer.allocate(4);
+
+        while (valid + 4 <= size) {
+            frame.clear();
+            channel.read(frame, valid);
+            int length = frame.getInt(0);
+            if (length <= 0 || valid + 4 + length > size) break;
+
+            ByteBuffer body = ByteBuffer.allocate(length);
+            channel.read(body, valid + 4);
+            events.add(read(new DataInputStream(
+                    new ByteArrayInputStream(body.array()))));
+            valid += 4 + length;
+        }
+
+        // Later events go right after the last whole one
+        channel.truncate(valid);
+        channel.position(valid);
+
+        ThreadRunner.start(this);
+        return events;
+    }
+
+    /**
+     * Starts the log over with only the given events, written and forced
+     * before it returns. Used after recovery so the log stays as short as
+     * what is still open.
+     *
+     * @param events Events that describe the current state
+     * @throws IOException if the log can't be written
+     */
+    void rewrite(ArrayList<Event> events) throws IOException {
+        lock.lock();
+        try {
+            ByteArrayOutputStream all = new ByteArrayOutputStream();
+            DataOutputStream allOut = new DataOutputStream(all);
+            for (Event e : events) {
+                frame(e.type, e.time, e.itemID, e.account, e.lockID,
+                        e.amount, e.name, allOut);
+            }
+
+            File temp = new File(file.getPath() + ".tmp");
+            try (FileChannel tempChannel =
+                         new RandomAccessFile(temp, "rw").getChannel()) {
+                tempChannel.truncate(0);
+                tempChannel.write(ByteBuffer.wrap(all.toByteArray()));
+                tempChannel.force(true);
+            }
+
+            channel.close();
+            if (!temp.renameTo(file)) {
+                throw new IOException("Couldn't rename " + temp);
+            }
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            channel.position(channel.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Logs an event without waiting for it to be written
+     *
+     * @param type Event type
+     * @param itemID Item it's about
+     * @param account Account it's about
+     * @param lockID Bank lock of the bid
+     * @param amount Amount of the bid, or starting price
+     * @param name Name of the item, only for OPEN
+     */
+    void append(byte type, int itemID, int account, int lockID,
+                double amount, String name) {
+        lock.lock();
+        try {
+            // Only the first event of a batch wakes the writer
+            boolean first = buffer.size() == 0;
+            frame(type, System.currentTimeMillis(), itemID, account, lockID,
+                    amount, name, out);
+            if (first) appended.signal();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writer, writes and forces whatever was appended in one batch
+     */
+    @Override
+    public void run() {
+        ByteArrayOutputStream spare = new ByteArrayOutputStream();
+
+        while (true) {
+            ByteArrayOutputStream batch;
+            FileChannel target;
+
+            lock.lock();
+            try {
+                while (buffer.size() == 0) appended.awaitUninterruptibly();
+
+                // Let a few more events join the batch, nothing signals
+                // while the buffer has events in it
+                appended.awaitNanos(TimeUnit.MILLISECONDS.toNanos(
+                        BATCH_MILLIS));
+
+                batch = buffer;
+                buffer = spare;
+                out = new DataOutputStream(buffer);
+                target = channel;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                ByteBuffer bytes = ByteBuffer.wrap(batch.toByteArray());
+                while (bytes.hasRemaining()) target.write(bytes);
+                target.force(false);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            batch.reset();
+            spare = batch;
+        }
+    }
+
+    /**
+     * Writes one event with its length in front
+     *
+     * @param type Event type
+     * @param time When it happened
+     * @param itemID Item it's about
+     * @param account Account it's about
+     * @param lockID Bank lock of the bid
+     * @param amount Amount of the bid, or starting price
+     * @param name Name of the item, only for OPEN
+     * @param to Stream to write to
+     * @throws IOException never, the streams are in memory
+     */
+    private void frame(byte type, long time, int itemID, int account,
+                       int lockID, double amount, String name,
+                       DataOutputStream to) throws IOException {
+        event.reset();
+        eventOut.writeByte(type);
+        eventOut.writeLong(time);
+        eventOut.writeInt(itemID);
+        eventOut.writeInt(account);
+        eventOut.writeInt(lockID);
+        eventOut.writeDouble(amount);
+        eventOut.writeUTF(name == null ? "" : name);
+
+        to.writeInt(event.size());
+        event.writeTo(to);
+    }
+
+    /**
+     * Reads one event
+     *
+     * @param in Stream over the event's body
+     * @return the event
+     * @throws IOException if the event is cut short
+     */
+    private static Event read(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        long time = in.readLong();
+        int itemID = in.readInt();
+        int account = in.readInt();
+        int lockID = in.readInt();
+        double amount = in.readDouble();
+        String name = in.readUTF();
+        return new Event(type, time, itemID, account, lockID, amount, name);
+    }
+}
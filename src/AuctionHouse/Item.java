@@ -1,20 +1,67 @@
 package AuctionHouse;
 
+import AuctionProxy.AuctionInfo;
 import AuctionProxy.BidInfo;
 import BankProxy.BankProxy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Item class that is ran for bidding to be places upon
+ *
+ * The item has no thread of its own, it keeps a closing deadline on the
+ * house's timer wheel that every accepted bid pushes back.
+ *
+ * Bids and the closing of the item are put in a mailbox and settled as one
+ * burst by whichever thread got there first, so only that thread ever
+ * changes the lead and nothing is locked while the Bank is asked for funds.
+ * That thread settles a few bursts at most, then hands the mailbox to the
+ * house's drainers, so a busy item can't keep a bidder or the timer
+ * waiting. Drainers only ever wait on the Bank, never on a bid, so a
+ * handed over mailbox always gets a thread even when every worker is
+ * waiting on that item.
+ * Only the highest bid of a burst goes to the Bank, the rest are rejected
+ * straight away.
+ *
+ * Taking the lead is one Bank call: a raise of the agent's own bid adjusts
+ * the lock it already has, and outbidding someone else swaps their lock for
+ * a new one.
+ *
+ * Every change of the lead and the close are written to the house's event
+ * log, so an open item can be put back after a crash.
  */
-public class Item implements Runnable {
+public class Item {
+
+    // Most bursts one thread settles before handing the mailbox on
+    private static final int MAX_BURSTS = 4;
+
+    // How long a sale the Bank didn't answer waits to be tried again
+    private static final long SETTLE_RETRY_MILLIS = 1000;
 
     private BankProxy bank;
     private AuctionHouse auction;
-    private Bid bid;
     private int auctionID;
     private ItemInfo itemInfo;
     private int itemID;
-    private boolean open = true;
+    private double startingPrice;
+
+    // Leading bid and whether bidding is open, replaced as one so it can be
+    // read without a lock
+    private AtomicReference<Lead> lead;
+
+    // When the item closes, in System.nanoTime
+    private volatile long deadline;
+
+    // Bids waiting to be settled, and how many are not drained yet
+    private ConcurrentLinkedQueue<PendingBid> mailbox =
+            new ConcurrentLinkedQueue<>();
+    private AtomicInteger pendingCount = new AtomicInteger();
 
     /**
      * Item to be created from qualifying information
@@ -31,55 +78,273 @@ public class Item implements Runnable {
         this.itemInfo = itemInfo;
         this.itemID = itemInfo.getItemID();
         this.auctionID = auctionID;
+        this.startingPrice = itemInfo.getPrice();
+        this.lead = new AtomicReference<>(new Lead(null, true));
+    }
+
+    /**
+     * Starts the closing timer of the item
+     */
+    public void startTimer(){
+        deadline = System.nanoTime() +
+                TimeUnit.MILLISECONDS.toNanos(AuctionHouse.waitTime);
+        auction.getTimer().schedule(this::checkDeadline,
+                AuctionHouse.waitTime);
     }
 
     /**
-     * Starts the thread of the item
+     * Puts back an item that was open when the house went down, with its
+     * leading bid and whatever was left of its time
+     *
+     * @param bid Leading bid with its lock, null when nobody bid yet
+     * @param remainingMillis Time left before it closes, may be 0
      */
-    public synchronized void startThread(){
-        new Thread(this).start();
+    void restore(Bid bid, long remainingMillis) {
+        remainingMillis = Math.max(remainingMillis, 0);
+        if (bid != null) {
+            lead.set(new Lead(bid, true));
+            synchronized (itemInfo) { itemInfo.setPrice(bid.getAmount()); }
+            auction.catalogChanged(AuctionInfo.PRICECHANGED, itemInfo);
+        }
+
+        deadline = System.nanoTime() +
+                TimeUnit.MILLISECONDS.toNanos(remainingMillis);
+        auction.getTimer().schedule(this::checkDeadline, remainingMillis);
     }
 
     /**
      * Checks and then sets the bid.
      *
-     * Synchronized because it can be called twice at the same time!
+     * Safe to call from many threads at once, the bid is settled together
+     * with the others that came in at the same time.
      *
      * @param bid Bid to be checked
      * @return Status of the bid
      */
-    public synchronized BidInfo setBid(Bid bid) {
-        // Check if item is open
-        if (!open) return BidInfo.REJECTION;
-        // Check prices
-        else if (bid.getAmount() > itemInfo.getPrice()) {
-            // Lock funds
-            int lockID = bank.lockFunds(bid.getAccount(), bid.getAmount());
-
-            // Check lock
-            if (lockID == -1) return BidInfo.REJECTION;
-            else if (this.bid != null) {
-                bank.unlockFunds(this.bid.getAccount(), this.bid.getLockID());
+    public BidInfo setBid(Bid bid) {
+        // Cheap check first, most losing bids never reach the mailbox
+        if (!beats(lead.get(), bid)) return BidInfo.REJECTION;
+
+        return submit(new PendingBid(bid));
+    }
+
+    /**
+     * Puts the lead's lock back on the house's lease after the Bank lost
+     * it. Settled with the bids, so the lead can't change meanwhile.
+     *
+     * @return REJECTION if the Bank no longer holds the lock
+     */
+    BidInfo readoptLead() {
+        return submit(new PendingBid(null, true));
+    }
+
+    /**
+     * Puts a bid or a close in the mailbox and waits for it to be settled
+     *
+     * @param pending Bid or close to settle
+     * @return result of settling it
+     */
+    private BidInfo submit(PendingBid pending) {
+        mailbox.add(pending);
+
+        // First one in drains the mailbox for everyone
+        if (pendingCount.getAndIncrement() == 0) drainMailbox(1);
+
+        return pending.result.join();
+    }
+
+    /**
+     * Settles bursts until the mailbox stays empty, or hands it to a
+     * drainer after MAX_BURSTS
+     *
+     * @param missed Entries counted in pendingCount not drained yet
+     */
+    private void drainMailbox(int missed) {
+        ArrayList<PendingBid> burst = new ArrayList<>();
+
+        for (int bursts = 0; bursts < MAX_BURSTS; bursts++) {
+            PendingBid pending;
+            while ((pending = mailbox.poll()) != null) burst.add(pending);
+
+            if (!burst.isEmpty()) {
+                settleBurst(burst);
+                burst.clear();
             }
 
-            // Synchronously change itemInfo
-            synchronized (itemInfo) { itemInfo.setPrice(bid.getAmount()); }
+            missed = pendingCount.addAndGet(-missed);
+            if (missed == 0) return;
+        }
 
-            // Check nullity
-            if (this.bid != null) {
-                AuctionCommunicator ac = this.bid.getAc();
-                ac.notifyBid(BidInfo.OUTBID, itemInfo, bid.getAmount());
+        // Still busy, the mailbox stays claimed while a drainer goes on
+        int left = missed;
+        auction.getDrainers().execute(() -> drainMailbox(left));
+    }
+
+    /**
+     * Tries the bids from highest to lowest until one takes the lead, the
+     * ones below it are rejected without asking the Bank. A lead's lock is
+     * put back on the lease before the bids and a close in the burst is
+     * settled after them.
+     *
+     * @param burst Bids that came in together
+     */
+    private void settleBurst(ArrayList<PendingBid> burst) {
+        ArrayList<PendingBid> readopts = new ArrayList<>();
+        burst.removeIf(pending -> pending.readopt && readopts.add(pending));
+        for (PendingBid pending : readopts) {
+            pending.result.complete(readopt());
+        }
+
+        ArrayList<PendingBid> closes = new ArrayList<>();
+        burst.removeIf(pending -> pending.bid == null && closes.add(pending));
+
+        // Stable sort, the earlier of two equal bids goes first
+        burst.sort(Comparator.comparingDouble(
+                (PendingBid pending) -> pending.bid.getAmount()).reversed());
+
+        boolean placed = false;
+        for (PendingBid pending : burst) {
+            BidInfo result = BidInfo.REJECTION;
+            if (!placed) {
+                try {
+                    result = placeBid(pending.bid);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                placed = result == BidInfo.ACCEPTANCE;
             }
+            pending.result.complete(result);
+        }
 
-            // Set values of the bid
-            this.bid = bid;
-            this.bid.setLockID(lockID);
-            this.notify();
-            return BidInfo.ACCEPTANCE;
+        for (PendingBid pending : closes) {
+            pending.result.complete(close());
+        }
+    }
+
+    /**
+     * Reserves the bid's funds and makes it the lead, only called by the
+     * thread draining the mailbox
+     *
+     * @param bid Bid to be placed
+     * @return Status of the bid
+     */
+    private BidInfo placeBid(Bid bid) {
+        Lead current = lead.get();
+        if (!beats(current, bid)) return BidInfo.REJECTION;
+
+        Bid previous = current.bid;
+        boolean raise = previous != null &&
+                previous.getAccount() == bid.getAccount();
+
+        // One Bank call whichever way the lead changes hands
+        int lockID;
+        if (previous == null) {
+            lockID = bank.lockFunds(bid.getAccount(), bid.getAmount());
+        } else if (raise) {
+            lockID = bank.adjustLock(bid.getAccount(), previous.getLockID(),
+                    bid.getAmount()) ? previous.getLockID() : -1;
         } else {
-            // Reject if there is not enough money
+            lockID = bank.swapLock(previous.getAccount(), previous.getLockID(),
+                    bid.getAccount(), bid.getAmount());
+
+            // A lead whose lock is gone must not keep everyone else out
+            if (lockID == -1) {
+                lockID = bank.lockFunds(bid.getAccount(), bid.getAmount());
+                if (lockID != -1) {
+                    System.out.println("Lock of the lead on " +
+                            itemInfo.getName() + " was gone, the new bid " +
+                            "was locked on its own");
+                }
+            }
+        }
+        if (lockID == -1) return BidInfo.REJECTION;
+        bid.setLockID(lockID);
+
+        // Push the closing time back, the timer catches up on its own
+        deadline = System.nanoTime() +
+                TimeUnit.MILLISECONDS.toNanos(AuctionHouse.waitTime);
+        lead.set(new Lead(bid, true));
+
+        synchronized (itemInfo) { itemInfo.setPrice(bid.getAmount()); }
+        auction.catalogChanged(AuctionInfo.PRICECHANGED, itemInfo);
+
+        // Let the old lead know, unless they just raised their own bid
+        if (previous != null && !raise) {
+            auction.logEvent(EventLog.OUTBID, itemID, previous.getAccount(),
+                    previous.getLockID(), previous.getAmount(), null);
+
+            // A lead recovered from the log has nobody to tell
+            AuctionClient ac = previous.getAc();
+            if (ac != null) {
+                ac.notifyBid(BidInfo.OUTBID, itemInfo, bid.getAmount());
+            }
+        }
+        auction.logEvent(EventLog.BID, itemID, bid.getAccount(), lockID,
+                bid.getAmount(), null);
+
+        return BidInfo.ACCEPTANCE;
+    }
+
+    /**
+     * Adjusts the lead's lock to the amount it already has, which puts it
+     * on the house's lease again, only called by the thread draining the
+     * mailbox
+     *
+     * @return ACCEPTANCE if there's no lead or its lock is still held
+     */
+    private BidInfo readopt() {
+        Bid current = lead.get().bid;
+        if (current == null) return BidInfo.ACCEPTANCE;
+
+        try {
+            if (bank.adjustLock(current.getAccount(), current.getLockID(),
+                    current.getAmount())) {
+                return BidInfo.ACCEPTANCE;
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+
+        System.out.println("Lock of the lead on " + itemInfo.getName() +
+                " is gone");
+        return BidInfo.REJECTION;
+    }
+
+    /**
+     * Closes the item unless a bid moved the deadline, only called by the
+     * thread draining the mailbox
+     *
+     * @return ACCEPTANCE if the item closed
+     */
+    private BidInfo close() {
+        Lead current = lead.get();
+        if (!current.open) return BidInfo.REJECTION;
+
+        // A bid in the same burst can still keep it open
+        long remaining = deadline - System.nanoTime();
+        if (remaining > 0) {
+            auction.getTimer().schedule(this::checkDeadline,
+                    TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
             return BidInfo.REJECTION;
         }
+
+        // No more bids once the timer ran out
+        lead.set(new Lead(current.bid, false));
+        auction.logEvent(EventLog.CLOSE, itemID, 0, 0, 0, null);
+        return BidInfo.ACCEPTANCE;
+    }
+
+    /**
+     * Checks if a bid would take the lead
+     *
+     * @param current Current lead
+     * @param bid Bid to be checked
+     * @return whether it's open and the bid is higher
+     */
+    private boolean beats(Lead current, Bid bid) {
+        double price = current.bid == null ?
+                startingPrice : current.bid.getAmount();
+        return current.open && bid.getAmount() > price;
     }
 
     /**
@@ -110,54 +375,29 @@ public class Item implements Runnable {
     }
 
     /**
-     * When an object implementing interface <code>Runnable</code> is used
-     * to create a thread, starting the thread causes the object's
-     * <code>run</code> method to be called in that separately executing
-     * thread.
-     * <p>
-     * The general contract of the method <code>run</code> is that it may
-     * take any action whatsoever.
-     *
-     * @see Thread#run()
-     */
-    @Override
-    public void run() {
-        itemTimer();
-    }
-
-    /**
-     * Timer that resets upon each bid. Works off a notify/wait structure.
+     * Runs when the timer fires. Bids may have moved the deadline since it
+     * was scheduled, then the check is scheduled again for the new deadline.
      *
-     * When it has be approximately the specified time and the bid has not
-     * changed then the auction will conclude.
+     * When the deadline has passed with no new bid the auction concludes.
      */
-    private synchronized void itemTimer() {
-        Bid currentBid;
-
-        // Wait specified time for a bid to occur.
-        do {
-            currentBid = bid;
-            try {
-                synchronized (this) { wait(AuctionHouse.waitTime); }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-
-            // Checks if noone bid
-            if (bid == null) {
-                System.out.println("NOONE BID ON " + this);
-                auction.removeItem(itemID);
-                return;
-            }
+    private void checkDeadline() {
+        long remaining = deadline - System.nanoTime();
+        if (remaining > 0) {
+            auction.getTimer().schedule(this::checkDeadline,
+                    TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+            return;
+        }
 
-        } while (currentBid != bid);
+        // Close in line with the bids so no lock is changed underneath it
+        if (submit(new PendingBid(null)) != BidInfo.ACCEPTANCE) return;
 
         // End auction
-        synchronized (bid) {
-            if (bid == currentBid) {
-                open = false;
-                endAuction();
-            }
+        Bid finalBid = lead.get().bid;
+        if (finalBid == null) {
+            System.out.println("NOONE BID ON " + this);
+            auction.removeItem(itemID);
+        } else {
+            endAuction(finalBid);
         }
     }
 
@@ -167,18 +407,40 @@ public class Item implements Runnable {
      * Transfers the fund from the bank to the winning
      * account.
      * Removes item from Auction House.
+     *
+     * If the Bank doesn't answer the item stays closed but not settled and
+     * the transfer is tried again later, so the event log still has it
+     * to settle after a crash.
+     *
+     * @param bid Winning bid, can't change once the item is closed
      */
-    private synchronized void endAuction() {
-        synchronized (bid) {
-            if (bid != null) {
-                System.out.println("THE ITEM " + itemInfo + " WAS SOLD");
-                bid.getAc().notifyBid(BidInfo.WINNER, itemInfo,bid.getAmount());
-                bank.transferFunds(bid.getAccount(), auctionID,
-                        bid.getLockID());
-                auction.removeItem(itemID);
-                //auction.bids.remove(bid);
+    private void endAuction(Bid bid) {
+        boolean paid;
+        try {
+            paid = bank.transferFundsAsync(bid.getAccount(), auctionID,
+                    bid.getLockID()).get();
+        } catch (ExecutionException e) {
+            System.out.println("Couldn't settle " + this + ", trying again");
+            auction.getTimer().schedule(() -> endAuction(bid),
+                    SETTLE_RETRY_MILLIS);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        // Trying again can't bring back a lock the Bank doesn't have
+        if (paid) {
+            System.out.println("THE ITEM " + itemInfo + " WAS SOLD");
+            if (bid.getAc() != null) {
+                bid.getAc().notifyBid(BidInfo.WINNER, itemInfo,
+                        bid.getAmount());
             }
+        } else {
+            System.out.println("The winning lock on " + this + " is gone, " +
+                    "nothing was paid");
         }
+        auction.removeItem(itemID);
     }
 
 
@@ -189,6 +451,54 @@ public class Item implements Runnable {
      * @return is it this account's bid?
      */
     public boolean contains(int accountID) {
-        return open && bid != null && bid.getAccount() == accountID;
+        Lead current = lead.get();
+        return current.open && current.bid != null &&
+                current.bid.getAccount() == accountID;
+    }
+
+    /**
+     * Bid or close waiting in the mailbox with the result its caller waits on
+     */
+    private static class PendingBid {
+
+        private final Bid bid;
+        private final boolean readopt;
+        private final CompletableFuture<BidInfo> result =
+                new CompletableFuture<>();
+
+        /**
+         * @param bid Bid to be settled, null to close the item
+         */
+        private PendingBid(Bid bid) {
+            this(bid, false);
+        }
+
+        /**
+         * @param bid Bid to be settled, null to close the item
+         * @param readopt Whether to put the lead's lock back on the lease
+         *                instead
+         */
+        private PendingBid(Bid bid, boolean readopt) {
+            this.bid = bid;
+            this.readopt = readopt;
+        }
+    }
+
+    /**
+     * Leading bid together with whether the item still takes bids
+     */
+    private static class Lead {
+
+        private final Bid bid;
+        private final boolean open;
+
+        /**
+         * @param bid Leading bid, null when nobody bid yet
+         * @param open Whether bids are still taken
+         */
+        private Lead(Bid bid, boolean open) {
+            this.bid = bid;
+            this.open = open;
+        }
     }
 }
@@ -0,0 +1,251 @@
+package AuctionHouse;
+
+import AuctionProxy.AuctionInfo;
+import AuctionProxy.AuctionRequest;
+import Concurrency.HashedWheelTimer;
+import Concurrency.ThreadRunner;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Pushes lot openings, price changes and closings to the agents that
+ * subscribed to them, either to the whole catalog or to single lots.
+ *
+ * Publishing only queues the event, one thread hands the events to the
+ * subscribers in the order their catalog versions were given out, so a bid
+ * never waits on an agent's socket.
+ *
+ * An agent that isn't keeping up has its changes held back, only the latest
+ * one of each lot, and is tried again a little later. What is held back is
+ * bounded, so a slow agent costs the house at most that much memory and
+ * never holds up the others.
+ *
+ * Held back changes leave gaps in the catalog versions an agent sees, so
+ * every push to an agent is numbered instead. The agent applies pushes lot
+ * by lot, and only a skipped number, which means changes had to be dropped,
+ * has it catch up with GETCHANGES.
+ */
+class LotFeed implements Runnable {
+
+    // Most lots held back for one agent, and most lots one agent watches
+    private static final int MAX_PENDING = 1024;
+    private static final int MAX_WATCHED = 1024;
+
+    // How long a backlogged agent waits before it's tried again
+    private static final long RETRY_MILLIS = 20;
+
+    private ConcurrentHashMap<AuctionClient, Subscriber> subscribers =
+            new ConcurrentHashMap<>();
+    private LinkedBlockingQueue<AuctionRequest> events =
+            new LinkedBlockingQueue<>();
+    private HashedWheelTimer timer;
+
+    /**
+     * Starts the thread that sends the events
+     *
+     * @param timer Timer backlogged agents are retried on
+     */
+    LotFeed(HashedWheelTimer timer) {
+        this.timer = timer;
+        ThreadRunner.start(this);
+    }
+
+    /**
+     * Starts sending every change of the catalog to an agent
+     *
+     * @param client Agent to send to
+     */
+    void subscribe(AuctionClient client) {
+        subscriber(client).allLots = true;
+    }
+
+    /**
+     * Starts sending the changes of one lot to an agent
+     *
+     * @param client Agent to send to
+     * @param itemID Lot to watch
+     * @return false if the agent already watches too many lots
+     */
+    boolean watch(AuctionClient client, int itemID) {
+        Subscriber subscriber = subscriber(client);
+        if (subscriber.watched.size() >= MAX_WATCHED) return false;
+
+        subscriber.watched.add(itemID);
+        return true;
+    }
+
+    /**
+     * Stops sending the changes of one lot to an agent
+     *
+     * @param client Agent to stop sending to
+     * @param itemID Lot it watched
+     */
+    void unwatch(AuctionClient client, int itemID) {
+        Subscriber subscriber = subscribers.get(client);
+        if (subscriber != null) subscriber.watched.remove(itemID);
+    }
+
+    /**
+     * Stops sending events to an agent
+     *
+     * @param client Agent that left
+     */
+    void unsubscribe(AuctionClient client) {
+        subscribers.remove(client);
+    }
+
+    /**
+     * Queues an event for every subscriber. Called in catalog version order.
+     *
+     * @param event Event to send, not an ack
+     */
+    void publish(AuctionRequest event) {
+        // Nothing to do when nobody listens
+        if (subscribers.isEmpty()) return;
+
+        events.add(event);
+    }
+
+    /**
+     * Gets the subscriber of an agent, making one the first time
+     *
+     * @param client Agent to send to
+     * @return its subscriber
+     */
+    private Subscriber subscriber(AuctionClient client) {
+        return subscribers.computeIfAbsent(client, Subscriber::new);
+    }
+
+    /**
+     * Hands the events as they come to every agent that wants them
+     */
+    @Override
+    public void run() {
+        while (true) {
+            AuctionRequest event;
+            try {
+                event = events.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            int itemID = event.getItem().getItemID();
+            for (Subscriber subscriber : subscribers.values()) {
+                if (!subscriber.allLots &&
+                        !subscriber.watched.contains(itemID)) continue;
+
+                subscriber.offer(event);
+
+                // A closed lot never changes again
+                if (event.getType() == AuctionInfo.LOTCLOSED) {
+                    subscriber.watched.remove(itemID);
+                }
+            }
+        }
+    }
+
+    /**
+     * One agent's subscriptions and the changes it hasn't been sent yet
+     */
+    private class Subscriber {
+
+        private final AuctionClient client;
+        private volatile boolean allLots = false;
+        private Set<Integer> watched = ConcurrentHashMap.newKeySet();
+
+        // Latest change of each lot not sent yet, in the order the lots
+        // first changed
+        private LinkedHashMap<Integer, AuctionRequest> pending =
+                new LinkedHashMap<>();
+        private boolean retryScheduled = false;
+
+        // Number of the last push, and whether changes were dropped since
+        private long sequence = 0;
+        private boolean dropped = false;
+
+        /**
+         * @param client Agent to send to
+         */
+        private Subscriber(AuctionClient client) {
+            this.client = client;
+        }
+
+        /**
+         * Adds a change in place of any older one of the same lot, then
+         * sends what the agent can take
+         *
+         * @param event Change to send
+         */
+        private synchronized void offer(AuctionRequest event) {
+            // Stays where the lot's older change was, so a busy lot isn't
+            // pushed to the back every time it changes
+            pending.put(event.getItem().getItemID(), event);
+
+            // The agent sees the skipped number and catches up by itself
+            if (pending.size() > MAX_PENDING) {
+                Iterator<AuctionRequest> oldest = pending.values().iterator();
+                oldest.next();
+                oldest.remove();
+                dropped = true;
+            }
+
+            drain();
+        }
+
+        /**
+         * Sends held back changes until the agent is backlogged, then tries
+         * again later
+         */
+        private synchronized void drain() {
+            Iterator<AuctionRequest> iterator = pending.values().iterator();
+            while (iterator.hasNext()) {
+                if (client.isBacklogged()) {
+                    if (!retryScheduled) {
+                        retryScheduled = true;
+                        timer.schedule(this::retry, RETRY_MILLIS);
+                    }
+                    return;
+                }
+
+                AuctionRequest event = iterator.next();
+                iterator.remove();
+                if (!client.push(numbered(event))) {
+                    pending.clear();
+                    unsubscribe(client);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Copies a change for this agent with the next push number, one
+         * further on if changes were dropped
+         *
+         * @param event Change to send
+         * @return the agent's own copy
+         */
+        private AuctionRequest numbered(AuctionRequest event) {
+            sequence += dropped ? 2 : 1;
+            dropped = false;
+
+            AuctionRequest push = new AuctionRequest(event.getType(),
+                    event.getPacketID());
+            push.setAck(false);
+            push.setItemInfo(event.getItem());
+            push.setVersion(event.getVersion());
+            push.setSequence(sequence);
+            return push;
+        }
+
+        /**
+         * Runs on the timer when a backlogged agent may have caught up
+         */
+        private synchronized void retry() {
+            retryScheduled = false;
+            if (subscribers.get(client) == this) drain();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package AuctionProxy;
+
+import AuctionHouse.Bid;
+import AuctionHouse.ItemInfo;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous version of AuctionProcess. Each call sends its request right
+ * away and returns a future completed when the response arrives, so bids and
+ * catalog reads can overlap on one connection.
+ *
+ * The futures complete exceptionally if the connection is lost.
+ */
+public interface AuctionAsyncProcess {
+
+    /**
+     * To place a bid
+     *
+     * @param bid Bid object that contains elements
+     * @return status of the bid
+     */
+    CompletableFuture<BidInfo> bidAsync(Bid bid);
+
+    /**
+     * Gets the Item Info from the Item ID.
+     *
+     * @param itemID Identifier of Item
+     * @return ItemInfo
+     */
+    CompletableFuture<ItemInfo> getItemInfoAsync(int itemID);
+
+    /**
+     * Gets an ArrayList of all of the Items
+     *
+     * @return ArrayList of Items
+     */
+    CompletableFuture<ArrayList<ItemInfo>> getItemsAsync();
+
+    /**
+     * Gets one page of the lots that match a query
+     *
+     * @param query Name prefix, price range, order and page to get
+     * @return lots on the page, in order
+     */
+    CompletableFuture<ArrayList<ItemInfo>> queryAsync(ItemQuery query);
+
+    /**
+     * Check to see if the close is allowed
+     *
+     * @param accountID Account ID to be used for checking
+     * @return True if no active bids, false if active bids
+     */
+    CompletableFuture<Boolean> closeRequestAsync(int accountID);
+}
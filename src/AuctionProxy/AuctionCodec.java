@@ -0,0 +1,249 @@
+package AuctionProxy;
+
+import AuctionHouse.Bid;
+import AuctionHouse.ItemInfo;
+import AuctionHouse.CatalogSnapshot;
+import Network.PacketCodec;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary codec for AuctionRequest
+ *
+ * After the packet header a bit mask says which fields follow, so unused
+ * fields cost nothing on the wire.
+ */
+public class AuctionCodec extends PacketCodec<AuctionRequest> {
+
+    // Field bits
+    private static final int BID = 1;
+    private static final int ITEM = 2;
+    private static final int ITEMS = 4;
+    private static final int CONTAINS = 8;
+    private static final int ITEM_ID = 16;
+    private static final int BID_STATUS = 32;
+    private static final int NEW_AMOUNT = 64;
+    private static final int VERSION = 128;
+    private static final int REMOVED = 256;
+    private static final int FULL = 512;
+    private static final int QUERY = 1024;
+    private static final int SEQUENCE = 2048;
+
+    private static final AuctionInfo[] TYPES = AuctionInfo.values();
+    private static final BidInfo[] STATUSES = BidInfo.values();
+    private static final ItemSort[] SORTS = ItemSort.values();
+
+    /**
+     * Writes the body of the request
+     *
+     * @param ar Request to write
+     * @param out Output to write to
+     * @throws IOException if writing fails
+     */
+    @Override
+    protected void write(AuctionRequest ar, DataOutputStream out)
+            throws IOException {
+        writeHeader(ar, ar.getType().ordinal(), out);
+
+        // Work out which fields are present
+        int mask = 0;
+        if (ar.getBid() != null) mask |= BID;
+        if (ar.getItem() != null) mask |= ITEM;
+        if (ar.getItems() != null) mask |= ITEMS;
+        if (ar.isContains()) mask |= CONTAINS;
+        if (ar.getItemID() != 0) mask |= ITEM_ID;
+        if (ar.getBidStatus() != null) mask |= BID_STATUS;
+        if (ar.getNewAmount() != 0) mask |= NEW_AMOUNT;
+        if (ar.getVersion() != 0) mask |= VERSION;
+        if (ar.getRemoved() != null) mask |= REMOVED;
+        if (ar.isFull()) mask |= FULL;
+        if (ar.getQuery() != null) mask |= QUERY;
+        if (ar.getSequence() != 0) mask |= SEQUENCE;
+        out.writeShort(mask);
+
+        if ((mask & BID) != 0) {
+            Bid bid = ar.getBid();
+            out.writeDouble(bid.getAmount());
+            out.writeInt(bid.getAccount());
+            out.writeInt(bid.getItemID());
+        }
+        if ((mask & ITEM) != 0) writeItem(ar.getItem(), out);
+        if ((mask & ITEMS) != 0) {
+            // A shared snapshot was already encoded for someone else
+            CatalogSnapshot catalog = ar.getCatalog();
+            if (catalog != null) {
+                out.write(catalog.getEncoded());
+            } else {
+                writeItems(ar.getItems(), out);
+            }
+        }
+        if ((mask & ITEM_ID) != 0) out.writeInt(ar.getItemID());
+        if ((mask & BID_STATUS) != 0) {
+            out.writeByte(ar.getBidStatus().ordinal());
+        }
+        if ((mask & NEW_AMOUNT) != 0) out.writeDouble(ar.getNewAmount());
+        if ((mask & VERSION) != 0) out.writeLong(ar.getVersion());
+        if ((mask & REMOVED) != 0) {
+            out.writeInt(ar.getRemoved().size());
+            for (int itemID : ar.getRemoved()) out.writeInt(itemID);
+        }
+        if ((mask & QUERY) != 0) writeQuery(ar.getQuery(), out);
+        if ((mask & SEQUENCE) != 0) out.writeLong(ar.getSequence());
+    }
+
+    /**
+     * Reads the body of a request
+     *
+     * @param in Input holding the body
+     * @return Request read
+     * @throws IOException if the body is malformed
+     */
+    @Override
+    protected AuctionRequest read(DataInputStream in) throws IOException {
+        int type = in.readUnsignedByte();
+        if (type >= TYPES.length) throw new IOException("Bad type " + type);
+
+        AuctionRequest ar = new AuctionRequest(TYPES[type], in.readInt());
+        applyFlags(ar, in.readUnsignedByte());
+
+        int mask = in.readUnsignedShort();
+        if ((mask & BID) != 0) {
+            double amount = in.readDouble();
+            int account = in.readInt();
+            ar.setBid(new Bid(amount, account, in.readInt()));
+        }
+        if ((mask & ITEM) != 0) ar.setItemInfo(readItem(in));
+        if ((mask & ITEMS) != 0) {
+            int count = in.readInt();
+            if (count < 0) throw new IOException("Bad item count " + count);
+
+            ArrayList<ItemInfo> items = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) items.add(readItem(in));
+            ar.setItems(items);
+        }
+        ar.setRequest((mask & CONTAINS) != 0);
+        if ((mask & ITEM_ID) != 0) ar.setItemID(in.readInt());
+        if ((mask & BID_STATUS) != 0) {
+            int status = in.readUnsignedByte();
+            if (status >= STATUSES.length) {
+                throw new IOException("Bad bid status " + status);
+            }
+            ar.setBidStatus(STATUSES[status]);
+        }
+        if ((mask & NEW_AMOUNT) != 0) ar.setNewAmount(in.readDouble());
+        if ((mask & VERSION) != 0) ar.setVersion(in.readLong());
+        if ((mask & REMOVED) != 0) {
+            int count = in.readInt();
+            if (count < 0) throw new IOException("Bad removed count " + count);
+
+            ArrayList<Integer> removed = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) removed.add(in.readInt());
+            ar.setRemoved(removed);
+        }
+        ar.setFull((mask & FULL) != 0);
+        if ((mask & QUERY) != 0) ar.setQuery(readQuery(in));
+        if ((mask & SEQUENCE) != 0) ar.setSequence(in.readLong());
+
+        return ar;
+    }
+
+    /**
+     * Encodes a list of items the way a request carries them
+     *
+     * @param items Items to encode
+     * @return encoded items
+     * @throws IOException if writing fails
+     */
+    public static byte[] encodeItems(List<ItemInfo> items)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                4 + items.size() * 32);
+        writeItems(items, new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes a list of items with its count in front
+     *
+     * @param items Items to write
+     * @param out Output to write to
+     * @throws IOException if writing fails
+     */
+    private static void writeItems(List<ItemInfo> items,
+                                   DataOutputStream out) throws IOException {
+        out.writeInt(items.size());
+        for (ItemInfo info : items) writeItem(info, out);
+    }
+
+    /**
+     * Writes a single item
+     *
+     * @param info Item to write
+     * @param out Output to write to
+     * @throws IOException if writing fails
+     */
+    private static void writeItem(ItemInfo info, DataOutputStream out)
+            throws IOException {
+        out.writeUTF(info.getName());
+        out.writeDouble(info.getPrice());
+        out.writeInt(info.getItemID());
+    }
+
+    /**
+     * Reads a single item
+     *
+     * @param in Input to read from
+     * @return Item read
+     * @throws IOException if the item is malformed
+     */
+    private static ItemInfo readItem(DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        double price = in.readDouble();
+        return new ItemInfo(name, price, in.readInt());
+    }
+
+    /**
+     * Writes a catalog query
+     *
+     * @param query Query to write
+     * @param out Output to write to
+     * @throws IOException if writing fails
+     */
+    private static void writeQuery(ItemQuery query, DataOutputStream out)
+            throws IOException {
+        out.writeByte(query.getSort().ordinal());
+        out.writeInt(query.getLimit());
+        out.writeDouble(query.getMinPrice());
+        out.writeDouble(query.getMaxPrice());
+
+        out.writeBoolean(query.getPrefix() != null);
+        if (query.getPrefix() != null) out.writeUTF(query.getPrefix());
+        out.writeBoolean(query.getAfter() != null);
+        if (query.getAfter() != null) writeItem(query.getAfter(), out);
+    }
+
+    /**
+     * Reads a catalog query
+     *
+     * @param in Input to read from
+     * @return Query read
+     * @throws IOException if the query is malformed
+     */
+    private static ItemQuery readQuery(DataInputStream in)
+            throws IOException {
+        int sort = in.readUnsignedByte();
+        if (sort >= SORTS.length) throw new IOException("Bad sort " + sort);
+
+        ItemQuery query = new ItemQuery(SORTS[sort], in.readInt());
+        double minPrice = in.readDouble();
+        query.setPriceRange(minPrice, in.readDouble());
+
+        if (in.readBoolean()) query.setPrefix(in.readUTF());
+        if (in.readBoolean()) query.setAfter(readItem(in));
+        return query;
+    }
+}
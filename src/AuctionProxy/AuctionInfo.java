@@ -5,5 +5,14 @@ package AuctionProxy;
  * Used by AuctionCommunicator and AuctionProxy
  */
 public enum AuctionInfo {
-    BID, GET, GETALL, CLOSEREQUEST;
+    BID, GET, GETALL, CLOSEREQUEST, GETCHANGES, SUBSCRIBE,
+
+    // Pushed to subscribed agents
+    LOTOPENED, PRICECHANGED, LOTCLOSED,
+
+    // Asking for the pushes of single lots
+    WATCH, UNWATCH,
+
+    // One page of the catalog
+    QUERY;
 }
@@ -31,6 +31,14 @@ public interface AuctionProcess {
      */
     ArrayList<ItemInfo> getItems();
 
+    /**
+     * Gets one page of the lots that match a query
+     *
+     * @param query Name prefix, price range, order and page to get
+     * @return lots on the page, in order
+     */
+    ArrayList<ItemInfo> query(ItemQuery query);
+
     /**
      * Check to see if the close is allowed
      *
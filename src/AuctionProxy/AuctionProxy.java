@@ -1,34 +1,62 @@
 package AuctionProxy;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.util.ArrayList;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import Agent.AgentApp;
 import AuctionHouse.Bid;
 import AuctionHouse.ItemInfo;
+import Concurrency.ThreadRunner;
+import Network.PacketStream;
+import Network.PendingRequests;
+import Network.WireFormat;
 
 /**
  * Auction Proxy used for communication
  * in the network by the Auction house
+ *
+ * Requests are pipelined over one connection. Each one gets its own future
+ * in a correlation table, completed by the reader thread, and the blocking
+ * AuctionProcess methods just wait on that future.
  */
-public class AuctionProxy implements AuctionProcess, Runnable {
+public class AuctionProxy implements AuctionProcess, AuctionAsyncProcess,
+        Runnable {
 
-    private ConcurrentHashMap<Integer, AuctionRequest> messages =
-            new ConcurrentHashMap<Integer, AuctionRequest>();
-    private ObjectInputStream is = null;
-    private ObjectOutputStream os = null;
+    private PendingRequests<AuctionRequest> pending = new PendingRequests<>();
+    private PacketStream<AuctionRequest> stream = null;
+    private WireFormat format;
     private Socket s;
-    private boolean open;
+    private volatile boolean open;
     private String hostname;
     private int port;
-    private ArrayList<Bid> bids;
+    private ConcurrentLinkedQueue<Bid> bids = new ConcurrentLinkedQueue<>();
     private AgentApp agentApp;
 
+    // The house's lots as of catalogVersion, kept up to date from changes
+    private LinkedHashMap<Integer, ItemInfo> catalog = new LinkedHashMap<>();
+    private long catalogVersion = -1;
+
+    // Once subscribed the house pushes every change, numbered so dropped
+    // ones are seen and caught up on with GETCHANGES
+    private volatile boolean subscribed = false;
+    private long pushSequence = 0;
+    private AtomicBoolean resyncing = new AtomicBoolean(false);
+    private volatile boolean resyncWanted = false;
+    private volatile LotListener listener;
+
+    // Version of the last push of each lot newer than catalogVersion, pushes
+    // have gaps since only some lots are watched and a slow agent only gets
+    // the latest change of each lot
+    private HashMap<Integer, Long> pushedVersions = new HashMap<>();
+
     /**
      * Proxy design for the Auction House. Creates a socket from the
      * passed parameters
@@ -37,7 +65,22 @@ public class AuctionProxy implements AuctionProcess, Runnable {
      * @param port port number
      */
     public AuctionProxy(String hostname, int port, AgentApp agentApp) {
+        this(hostname, port, agentApp, PacketStream.defaultFormat);
+    }
+
+    /**
+     * Proxy design for the Auction House. Creates a socket from the
+     * passed parameters using the given wire format
+     *
+     * @param hostname host name
+     * @param port port number
+     * @param agentApp App to notify
+     * @param format Wire format of the connection
+     */
+    public AuctionProxy(String hostname, int port, AgentApp agentApp,
+                        WireFormat format) {
         this.agentApp = agentApp;
+        this.format = format;
         open = true;
 
         this.hostname = hostname;
@@ -45,9 +88,7 @@ public class AuctionProxy implements AuctionProcess, Runnable {
 
         connectToServer(hostname, port);
 
-        new Thread(this).start();
-
-        bids = new ArrayList<>();
+        ThreadRunner.start(this);
     }
 
     /**
@@ -60,9 +101,7 @@ public class AuctionProxy implements AuctionProcess, Runnable {
         try {
             s = new Socket(hostname, port);
 
-            os = new ObjectOutputStream(s.getOutputStream());
-
-            is = new ObjectInputStream(s.getInputStream());
+            stream = PacketStream.connect(s, new AuctionCodec(), format);
 
         } catch (IOException e) {
             try {
@@ -82,25 +121,74 @@ public class AuctionProxy implements AuctionProcess, Runnable {
      */
     @Override
     public BidInfo bid(Bid bid) {
+        return await(bidAsync(bid), BidInfo.REJECTION);
+    }
+
+    /**
+     * Gets the Item Info from the Item ID.
+     *
+     * @param itemID Identifier of Item
+     * @return ItemInfo
+     */
+    @Override
+    public ItemInfo getItemInfo(int itemID) {
+        return await(getItemInfoAsync(itemID), null);
+    }
+
+    /**
+     * Gets an ArrayList of all of the Items
+     *
+     * @return ArrayList of Items
+     */
+    @Override
+    public ArrayList<ItemInfo> getItems() {
+        return await(getItemsAsync(), null);
+    }
+
+
+    /**
+     * Gets one page of the lots that match a query
+     *
+     * @param query Name prefix, price range, order and page to get
+     * @return lots on the page, in order
+     */
+    @Override
+    public ArrayList<ItemInfo> query(ItemQuery query) {
+        return await(queryAsync(query), null);
+    }
+
+    /**
+     * Check to see if the close is allowed
+     *
+     * @param accountID Account ID to be used for checking
+     * @return True if no active bids, false if active bids
+     */
+    @Override
+    public boolean closeRequest(int accountID) {
+        return await(closeRequestAsync(accountID), false);
+    }
+
+    /**
+     * To place a bid
+     *
+     * @param bid Bid object that contains elements
+     * @return status of the bid
+     */
+    @Override
+    public CompletableFuture<BidInfo> bidAsync(Bid bid) {
 
         // Auction request
         AuctionRequest ar = new AuctionRequest(AuctionInfo.BID);
         ar.setBid(bid);
         bids.add(bid);
 
-        try {
-            // Write the object and wait upon the return
-            os.writeObject(ar);
-            waitOn(ar.getPacketID());
-
-            AuctionRequest response = messages.get(ar.getPacketID());
-            messages.remove(ar.getPacketID());
+        return send(ar).handle((response, failure) -> {
+            if (failure != null) {
+                bids.remove(bid);
+                return BidInfo.REJECTION;
+            }
             return response.getBidStatus();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        bids.remove(bid);
-        return BidInfo.REJECTION;
+        });
     }
 
     /**
@@ -110,55 +198,268 @@ public class AuctionProxy implements AuctionProcess, Runnable {
      * @return ItemInfo
      */
     @Override
-    public ItemInfo getItemInfo(int itemID) {
+    public CompletableFuture<ItemInfo> getItemInfoAsync(int itemID) {
         AuctionRequest ar = new AuctionRequest(AuctionInfo.GET);
         ar.setItemID(itemID);
 
-        try {
-            // Write the object and wait upon the return
-            os.writeObject(ar);
-            waitOn(ar.getPacketID());
-
-            AuctionRequest response = messages.get(ar.getPacketID());
-            messages.remove(ar.getPacketID());
-
-            return response.getItem();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return null;
+        return send(ar).thenApply(AuctionRequest::getItem);
     }
 
     /**
      * Gets an ArrayList of all of the Items
      *
+     * Only what changed since the last call is sent by the house, the rest
+     * comes from the copy kept here.
+     *
      * @return ArrayList of Items
      */
     @Override
-    public ArrayList<ItemInfo> getItems() {
-        AuctionRequest ar = new AuctionRequest(AuctionInfo.GETALL);
-        ar.setItems(null);
+    public CompletableFuture<ArrayList<ItemInfo>> getItemsAsync() {
+        // Pushed changes keep the copy here up to date
+        if (subscribed) {
+            synchronized (catalog) {
+                return CompletableFuture.completedFuture(
+                        new ArrayList<>(catalog.values()));
+            }
+        }
 
-        try {
-            // Write the object and wait upon the return
-            os.writeObject(ar);
-            waitOn(ar.getPacketID());
+        return send(changesRequest()).thenApply(this::applyChanges);
+    }
+
+    /**
+     * Gets one page of the lots that match a query
+     *
+     * @param query Name prefix, price range, order and page to get
+     * @return lots on the page, in order
+     */
+    @Override
+    public CompletableFuture<ArrayList<ItemInfo>> queryAsync(ItemQuery query) {
+        AuctionRequest ar = new AuctionRequest(AuctionInfo.QUERY);
+        ar.setQuery(query);
 
-            AuctionRequest response = messages.get(ar.getPacketID());
-            messages.remove(ar.getPacketID());
+        return send(ar).thenApply(response -> {
             for (ItemInfo items : response.getItems()) {
                 items.setProxy(this);
             }
             return response.getItems();
+        });
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Asks the house to push every change to its catalog from now on
+     *
+     * @return the whole catalog as of subscribing
+     */
+    public CompletableFuture<ArrayList<ItemInfo>> subscribe() {
+        AuctionRequest ar = new AuctionRequest(AuctionInfo.SUBSCRIBE);
+
+        return send(ar).thenApply(response -> {
+            ArrayList<ItemInfo> items = applyChanges(response);
+            subscribed = true;
+            return items;
+        });
+    }
+
+    /**
+     * Asks the house to push the changes of one lot, without subscribing to
+     * the whole catalog
+     *
+     * @param itemID Lot to watch
+     * @return false if the lot isn't open or too many are watched
+     */
+    public CompletableFuture<Boolean> watch(int itemID) {
+        AuctionRequest ar = new AuctionRequest(AuctionInfo.WATCH);
+        ar.setItemID(itemID);
+
+        return send(ar).thenApply(AuctionRequest::isContains);
+    }
+
+    /**
+     * Stops the pushes of a watched lot
+     *
+     * @param itemID Lot that was watched
+     * @return completed once the house stopped
+     */
+    public CompletableFuture<Void> unwatch(int itemID) {
+        AuctionRequest ar = new AuctionRequest(AuctionInfo.UNWATCH);
+        ar.setItemID(itemID);
+
+        return send(ar).thenAccept(response -> {
+            synchronized (catalog) {
+                pushedVersions.remove(itemID);
+            }
+        });
+    }
+
+    /**
+     * Sets who is told about changes to the catalog
+     *
+     * @param listener Listener, null for none
+     */
+    public void setLotListener(LotListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return request for the changes since the kept version
+     */
+    private AuctionRequest changesRequest() {
+        AuctionRequest ar = new AuctionRequest(AuctionInfo.GETCHANGES);
+        synchronized (catalog) {
+            ar.setVersion(catalogVersion);
         }
+        return ar;
+    }
 
-        return null;
+    /**
+     * Applies the house's changes to the kept catalog
+     *
+     * @param response Changes, or the whole catalog
+     * @return ArrayList of Items
+     */
+    private ArrayList<ItemInfo> applyChanges(AuctionRequest response) {
+        for (ItemInfo items : response.getItems()) {
+            items.setProxy(this);
+        }
+
+        ArrayList<AuctionRequest> events = new ArrayList<>();
+        ArrayList<ItemInfo> items;
+        synchronized (catalog) {
+            // An answer that overtook this one already brought it up to date
+            if (response.getVersion() > catalogVersion) {
+                // Whatever isn't in a full catalog closed
+                ArrayList<Integer> removed = response.getRemoved();
+                if (response.isFull()) {
+                    removed = new ArrayList<>(catalog.keySet());
+                    for (ItemInfo info : response.getItems()) {
+                        removed.remove((Integer) info.getItemID());
+                    }
+                }
+                for (int itemID : removed) {
+                    if (pushedAfter(itemID, response.getVersion())) continue;
+
+                    ItemInfo closed = catalog.remove(itemID);
+                    if (closed != null) {
+                        events.add(lotEvent(AuctionInfo.LOTCLOSED, closed));
+                    }
+                }
+
+                for (ItemInfo info : response.getItems()) {
+                    if (pushedAfter(info.getItemID(), response.getVersion())) {
+                        continue;
+                    }
+
+                    ItemInfo old = catalog.put(info.getItemID(), info);
+                    events.add(lotEvent(old == null ? AuctionInfo.LOTOPENED :
+                            AuctionInfo.PRICECHANGED, info));
+                }
+                catalogVersion = response.getVersion();
+
+                // Pushes as old as the catalog can't overtake it any more
+                pushedVersions.values().removeIf(
+                        version -> version <= catalogVersion);
+            }
+            items = new ArrayList<>(catalog.values());
+        }
+
+        for (AuctionRequest event : events) fireLotChanged(event);
+        return items;
     }
 
+    /**
+     * Applies a change pushed by the house to its lot. Pushes are only in
+     * order lot by lot, since the house keeps just the latest change of each
+     * lot for a slow agent. A skipped push number means the house dropped
+     * changes, those are asked for as well.
+     *
+     * @param event LOTOPENED, PRICECHANGED or LOTCLOSED
+     */
+    private void applyPush(AuctionRequest event) {
+        ItemInfo info = event.getItem();
+        info.setProxy(this);
+
+        int itemID = info.getItemID();
+        boolean missed;
+        boolean stale;
+        synchronized (catalog) {
+            missed = event.getSequence() != pushSequence + 1;
+            pushSequence = event.getSequence();
+
+            // Already had it, from an answer or a newer push of the lot
+            stale = event.getVersion() <= catalogVersion ||
+                    pushedAfter(itemID, event.getVersion() - 1);
+            if (!stale) {
+                // Kept after closing so an older answer can't bring it back
+                pushedVersions.put(itemID, event.getVersion());
+                if (event.getType() == AuctionInfo.LOTCLOSED) {
+                    catalog.remove(itemID);
+                } else {
+                    catalog.put(itemID, info);
+                }
+            }
+        }
+
+        if (!stale) fireLotChanged(event);
+        if (missed) resync();
+    }
+
+    /**
+     * Checks whether a lot was pushed in a version after the given one.
+     * Called holding the catalog.
+     *
+     * @param itemID Lot to check
+     * @param version Version to compare with
+     * @return true if the kept lot is newer
+     */
+    private boolean pushedAfter(int itemID, long version) {
+        Long pushed = pushedVersions.get(itemID);
+        return pushed != null && pushed > version;
+    }
+
+    /**
+     * Catches up on missed changes, once at a time. Changes missed while
+     * catching up are caught up on right after.
+     */
+    private void resync() {
+        resyncWanted = true;
+        if (!resyncing.compareAndSet(false, true)) return;
+        resyncWanted = false;
+
+        send(changesRequest()).thenApply(this::applyChanges)
+                .whenComplete((items, failure) -> {
+                    resyncing.set(false);
+                    if (resyncWanted && open) resync();
+                });
+    }
+
+    /**
+     * Makes an event for the listener out of a change
+     *
+     * @param type LOTOPENED, PRICECHANGED or LOTCLOSED
+     * @param info Lot that changed
+     * @return event
+     */
+    private static AuctionRequest lotEvent(AuctionInfo type, ItemInfo info) {
+        AuctionRequest event = new AuctionRequest(type, 0);
+        event.setItemInfo(info);
+        return event;
+    }
+
+    /**
+     * Tells the listener about a change
+     *
+     * @param event Change to tell about
+     */
+    private void fireLotChanged(AuctionRequest event) {
+        LotListener current = listener;
+        if (current == null) return;
+
+        try {
+            current.lotChanged(event.getType(), event.getItem());
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
 
     /**
      * Check to see if the close is allowed
@@ -167,29 +468,58 @@ public class AuctionProxy implements AuctionProcess, Runnable {
      * @return True if no active bids, false if active bids
      */
     @Override
-    public boolean closeRequest(int accountID) {
+    public CompletableFuture<Boolean> closeRequestAsync(int accountID) {
         AuctionRequest ar = new AuctionRequest(AuctionInfo.CLOSEREQUEST);
         ar.setItemID(accountID);
 
-        try {
-            // Write the object and wait upon the return
-            os.writeObject(ar);
-            waitOn(ar.getPacketID());
+        return send(ar).thenApply(AuctionRequest::isContains);
+    }
+
+    /**
+     * Registers the request in the correlation table and writes it out
+     *
+     * @param ar Request to send
+     * @return future completed with the response
+     */
+    private CompletableFuture<AuctionRequest> send(AuctionRequest ar) {
+        CompletableFuture<AuctionRequest> future = pending.register(ar);
 
-            AuctionRequest response = messages.get(ar.getPacketID());
-            messages.remove(response.getPacketID());
-            return response.isContains();
+        if (!isOpen()) {
+            pending.fail(ar.getPacketID(),
+                    new IOException("Auction connection is closed"));
+            return future;
+        }
 
+        try {
+            stream.write(ar);
         } catch (IOException e) {
-            e.printStackTrace();
+            pending.fail(ar.getPacketID(), e);
         }
+        return future;
+    }
 
-        return false;
+    /**
+     * Waits for a future, falling back to a default when the request failed
+     *
+     * @param future Future to wait on
+     * @param fallback Value if it failed
+     * @param <V> Type of the result
+     * @return result or fallback
+     */
+    private static <V> V await(CompletableFuture<V> future, V fallback) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return fallback;
     }
 
     /**
-     * Run that reads in objects and then either returns the response or
-     * processes the notification
+     * Run that reads in objects and then either completes the request it
+     * answers or processes the notification
      */
     @Override
     public void run() {
@@ -197,12 +527,11 @@ public class AuctionProxy implements AuctionProcess, Runnable {
             // Attempt to read in an AR from the input stream
             AuctionRequest newAr;
             try {
-                newAr = (AuctionRequest) is.readObject();
+                newAr = stream.read();
 
-                // Either notify or process immediately
+                // Either complete the request or process immediately
                 if (newAr.getAck()) {
-                    messages.put(newAr.getPacketID(), newAr);
-                    synchronized (this) { notify(); }
+                    pending.complete(newAr);
                 } else {
                     processMessage(newAr);
                 }
@@ -211,6 +540,7 @@ public class AuctionProxy implements AuctionProcess, Runnable {
             } catch (IOException | ClassNotFoundException e) {
                 System.out.println("An agent has left the auction house");
                 open = false;
+                pending.failAll(e);
                 //e.printStackTrace();
                 return;
             }
@@ -229,6 +559,11 @@ public class AuctionProxy implements AuctionProcess, Runnable {
      */
     private void processMessage(AuctionRequest newAr) {
         switch(newAr.getType()) {
+            case LOTOPENED:
+            case PRICECHANGED:
+            case LOTCLOSED:
+                applyPush(newAr);
+                break;
             case BID:
                 switch (newAr.getBidStatus()) {
                     case OUTBID:
@@ -278,22 +613,5 @@ public class AuctionProxy implements AuctionProcess, Runnable {
         return open;
     }
 
-    /**
-     * Wait on a given packetID
-     *
-     * @param packetID Wait until messages contains key
-     */
-    private void waitOn(int packetID) {
-        synchronized (this) {
-            while (!messages.containsKey(packetID)) {
-                try {
-                    wait();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-    }
-
 
 }
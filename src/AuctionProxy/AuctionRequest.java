@@ -1,5 +1,6 @@
 package AuctionProxy;
 import AuctionHouse.Bid;
+import AuctionHouse.CatalogSnapshot;
 import AuctionHouse.ItemInfo;
 import Network.Packet;
 
@@ -23,6 +24,23 @@ public class AuctionRequest extends Packet implements Serializable {
     private BidInfo bidStatus;
     private double newAmount = 0;
 
+    // Catalog version asked from, or reached by the items, and the lots
+    // that closed since. Full when the items are the whole catalog.
+    private long version = 0;
+    private ArrayList<Integer> removed = null;
+    private boolean full = false;
+
+    // Number of a push among those sent to one agent, a skipped number
+    // means the house dropped some
+    private long sequence = 0;
+
+    // Page of the catalog asked for
+    private ItemQuery query = null;
+
+    // Snapshot the items came from, only kept on the house's side so the
+    // items can be written from its cached bytes
+    private transient CatalogSnapshot catalog = null;
+
 
     /**
      * Constructor for AuctionRequest
@@ -120,6 +138,24 @@ public class AuctionRequest extends Packet implements Serializable {
         else this.items = items;
     }
 
+    /**
+     * @param catalog Snapshot whose items are sent
+     */
+    public void setCatalog(CatalogSnapshot catalog) {
+        this.catalog = catalog;
+        this.items = catalog.getItems();
+        this.version = catalog.getVersion();
+        this.removed = catalog.getRemoved();
+        this.full = catalog.isFull();
+    }
+
+    /**
+     * @return snapshot the items came from, null if they didn't
+     */
+    public CatalogSnapshot getCatalog() {
+        return catalog;
+    }
+
     /**
      * @return status of bid
      */
@@ -154,4 +190,74 @@ public class AuctionRequest extends Packet implements Serializable {
     public boolean isContains() {
         return contains;
     }
+
+    /**
+     * @return catalog version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @param version catalog version to set
+     */
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * @return IDs of the lots that closed, null if none
+     */
+    public ArrayList<Integer> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @param removed IDs of the lots that closed
+     */
+    public void setRemoved(ArrayList<Integer> removed) {
+        this.removed = removed;
+    }
+
+    /**
+     * @return whether the items are the whole catalog
+     */
+    public boolean isFull() {
+        return full;
+    }
+
+    /**
+     * @param full whether the items are the whole catalog
+     */
+    public void setFull(boolean full) {
+        this.full = full;
+    }
+
+    /**
+     * @return number of the push, 0 if not a push
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @param sequence number of the push
+     */
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * @return page of the catalog asked for, null if none
+     */
+    public ItemQuery getQuery() {
+        return query;
+    }
+
+    /**
+     * @param query page of the catalog to ask for
+     */
+    public void setQuery(ItemQuery query) {
+        this.query = query;
+    }
 }
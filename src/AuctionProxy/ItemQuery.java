@@ -0,0 +1,130 @@
+package AuctionProxy;
+
+import AuctionHouse.ItemInfo;
+import java.io.Serializable;
+import java.util.Comparator;
+
+/**
+ * One page of a house's catalog to look up
+ *
+ * Lots can be narrowed by a name prefix, ignoring case, and a price range,
+ * and come back sorted. The next page starts after the last lot of the one
+ * before, so lots opening or closing in between never shift a page.
+ */
+public class ItemQuery implements Serializable {
+
+    private String prefix = null;
+    private double minPrice = 0;
+    private double maxPrice = Double.MAX_VALUE;
+    private ItemSort sort;
+    private int limit;
+    private ItemInfo after = null;
+
+    /**
+     * Constructor for the first page of every lot
+     *
+     * @param sort Order of the lots
+     * @param limit Most lots on a page
+     */
+    public ItemQuery(ItemSort sort, int limit) {
+        this.sort = sort;
+        this.limit = limit;
+    }
+
+    /**
+     * @return name prefix, null for any name
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @param prefix name prefix, null for any name
+     */
+    public void setPrefix(String prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * @return lowest price
+     */
+    public double getMinPrice() {
+        return minPrice;
+    }
+
+    /**
+     * @return highest price
+     */
+    public double getMaxPrice() {
+        return maxPrice;
+    }
+
+    /**
+     * @param minPrice lowest price
+     * @param maxPrice highest price
+     */
+    public void setPriceRange(double minPrice, double maxPrice) {
+        this.minPrice = minPrice;
+        this.maxPrice = maxPrice;
+    }
+
+    /**
+     * @return order of the lots
+     */
+    public ItemSort getSort() {
+        return sort;
+    }
+
+    /**
+     * @return most lots on a page
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return last lot of the page before, null for the first page
+     */
+    public ItemInfo getAfter() {
+        return after;
+    }
+
+    /**
+     * @param after last lot of the page before, null for the first page
+     */
+    public void setAfter(ItemInfo after) {
+        this.after = after;
+    }
+
+    /**
+     * Checks whether a lot matches the name and price
+     *
+     * @param info Lot to check
+     * @return true if it belongs in the result
+     */
+    public boolean matches(ItemInfo info) {
+        return info.getPrice() >= minPrice && info.getPrice() <= maxPrice &&
+                (prefix == null || info.getName().regionMatches(true, 0,
+                        prefix, 0, prefix.length()));
+    }
+
+    /**
+     * Gets the order lots are sorted in, the item ID breaks ties
+     *
+     * @param sort Order of the lots
+     * @return comparator for it
+     */
+    public static Comparator<ItemInfo> order(ItemSort sort) {
+        switch (sort) {
+            case NAME:
+                return Comparator.comparing(ItemInfo::getName,
+                        String.CASE_INSENSITIVE_ORDER)
+                        .thenComparingInt(ItemInfo::getItemID);
+            case PRICE_DESCENDING:
+                return order(ItemSort.PRICE).reversed();
+            default:
+                return Comparator.comparingDouble(ItemInfo::getPrice)
+                        .thenComparingInt(ItemInfo::getItemID);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package AuctionProxy;
+
+/**
+ * Enumeration of the orders a catalog query can be sorted in
+ * Used by ItemQuery and the AuctionHouse's indexes
+ */
+public enum ItemSort {
+    NAME, PRICE, PRICE_DESCENDING;
+}
@@ -0,0 +1,18 @@
+package AuctionProxy;
+
+import AuctionHouse.ItemInfo;
+
+/**
+ * Told about every change to a subscribed house's catalog, on the thread
+ * that read it from the house
+ */
+public interface LotListener {
+
+    /**
+     * A lot opened, changed price or closed
+     *
+     * @param type LOTOPENED, PRICECHANGED or LOTCLOSED
+     * @param info Lot as it is now, or as it was last for LOTCLOSED
+     */
+    void lotChanged(AuctionInfo type, ItemInfo info);
+}
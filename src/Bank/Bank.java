@@ -1,33 +1,78 @@
 package Bank;
 
+import BankProxy.BankCodec;
 import BankProxy.BankProcess;
+import BankProxy.BankRequest;
 import Network.NetworkDevice;
+import Network.SelectorServer;
+import Concurrency.HashedWheelTimer;
+import Concurrency.ThreadRunner;
+import java.io.File;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static Agent.AgentApp.bankPort;
 
 /**
  * Runs a Bank where accounts can be interacted with through a socket connection
+ *
+ * Accounts are kept in a Ledger of whole cents, amounts are only doubles
+ * on the way in and out. There is no bank wide lock, see Ledger.
+ *
+ * Changes go through a BankEngine, the ledger itself, which every request
+ * thread changes directly.
+ *
+ * Locks made with a lease are unlocked once the lease goes unrenewed for
+ * leaseTime, see Leases.
+ *
+ * Given a journal directory every change is journaled, and a change is only
+ * answered once it's on disk. Snapshots are written there in the background,
+ * and on startup the latest one is loaded and the journal after it replayed.
  */
 public class Bank implements BankProcess {
 
+    // User can set this, milliseconds between snapshots of the accounts
+    public static long snapshotInterval = 60000;
+
+    // User can set this, milliseconds a lease lasts without being renewed
+    public static long leaseTime = 30000;
+
+    // Requests in selector mode run on this many workers, so a change
+    // waiting for the disk never holds up a selector thread and many waits
+    // can share one fsync
+    private static final int WORKER_THREADS = 64;
+
+    // Lease expiry only needs to be roughly on time
+    private static final long LEASE_TICK = 100;
+    private static final int LEASE_WHEEL_SIZE = 512;
+
     // Used data structures
-    private HashMap<Integer, Account> accounts = new HashMap<Integer, Account>();
+    private Ledger ledger = new Ledger();
+    private BankEngine engine = ledger;
+    private Leases leases;
+    private Journal journal;
     private LinkedBlockingQueue<NetworkDevice> auctionNetworkDevices =
             new LinkedBlockingQueue<>();
-    private LinkedBlockingQueue<BankCommunicator> bankCommunicators =
-            new LinkedBlockingQueue<>();
+    private Set<BankSession> sessions = ConcurrentHashMap.newKeySet();
+    private BankDispatcher dispatcher = new BankDispatcher(this);
+    private ExecutorService workers;
 
 
     // Flags
     private boolean alive = true;
 
     // Number of accounts
-    private int accountCount = 0;
+    private AtomicInteger accountCount = new AtomicInteger();
+
+    // Set while this thread runs a batch, which commits once at its end
+    private ThreadLocal<Boolean> inBatch =
+            ThreadLocal.withInitial(() -> false);
 
     /**
      * Constructor for Bank
@@ -35,6 +80,65 @@ public class Bank implements BankProcess {
      * @param port Creates a server on the given port
      */
     public Bank(int port) {
+        this(port, 0);
+    }
+
+    /**
+     * Constructor for Bank
+     *
+     * With selectorThreads above zero every connection is multiplexed over
+     * that many selector threads instead of getting a thread of its own.
+     *
+     * @param port Creates a server on the given port
+     * @param selectorThreads Number of selector threads, 0 for one thread
+     *                        per connection
+     */
+    public Bank(int port, int selectorThreads) {
+        this(port, selectorThreads, null);
+    }
+
+    /**
+     * Constructor for Bank
+     *
+     * @param port Creates a server on the given port
+     * @param selectorThreads Number of selector threads, 0 for one thread
+     *                        per connection
+     * @param journalDirectory Directory of the journal, null to keep the
+     *                         accounts in memory only
+     */
+    public Bank(int port, int selectorThreads, String journalDirectory) {
+
+        // Rebuild the accounts before taking any connections
+        if (journalDirectory != null) {
+            try {
+                openJournal(journalDirectory);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+
+        // Expired locks are unlocked through the engine like any change
+        leases = new Leases(ledger, engine, new HashedWheelTimer(LEASE_TICK,
+                LEASE_WHEEL_SIZE, ThreadRunner.newPool(1)), leaseTime,
+                this::commit);
+        if (journal != null) leases.recover();
+
+        // Non-blocking mode runs on its own threads
+        if (selectorThreads > 0) {
+            workers = ThreadRunner.newPool(WORKER_THREADS);
+            try {
+                SelectorServer<BankRequest> server = new SelectorServer<>(
+                        port, selectorThreads, new BankCodec(),
+                        new BankSelectorHandler(this));
+                server.start();
+                System.out.println("Started a selector server on port: " +
+                        port + " with " + selectorThreads + " threads");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
 
         // Attempt to create a new server socket
         ServerSocket ss = null;
@@ -51,18 +155,68 @@ public class Bank implements BankProcess {
         while (isAlive()) {
             try {
                 Socket s = ss.accept();
-                BankCommunicator ac = new BankCommunicator(s,this);
-                bankCommunicators.put(ac);
+                new BankCommunicator(s,this);
 
                 System.out.println("Started new BankCommunicator for: " +
                         s.getRemoteSocketAddress());
-            } catch (IOException | InterruptedException e) {
+            } catch (IOException e) {
                 e.printStackTrace();
             }
 
         }
     }
 
+    /**
+     * Loads the latest snapshot, replays the journal after it into the
+     * ledger, and journals and snapshots from then on
+     *
+     * @param journalDirectory Directory of the journal
+     * @throws IOException if the journal can't be read
+     */
+    private void openJournal(String journalDirectory) throws IOException {
+        File directory = new File(journalDirectory);
+        journal = new Journal(directory);
+        Snapshots snapshots = new Snapshots(directory, ledger, journal,
+                snapshotInterval);
+
+        long start = System.nanoTime();
+        long firstRecord = snapshots.load();
+        long records = journal.replay(firstRecord, snapshots.highestLsn(),
+                ledger::apply);
+        long millis = (System.nanoTime() - start) / 1000000;
+
+        ledger.setJournal(journal);
+        accountCount.set(ledger.highestID() + 1);
+        ThreadRunner.start(snapshots);
+
+        System.out.println("Replayed " + records + " journal entries in " +
+                millis + "ms, " + (ledger.highestID() + 1) + " accounts");
+    }
+
+    /**
+     * Waits until the changes made so far are on disk, if journaling and
+     * not in the middle of a batch
+     */
+    private void commit() {
+        if (journal != null && !inBatch.get()) journal.commit();
+    }
+
+    /**
+     * Runs several operations on this thread and waits for the disk once
+     * for all of them
+     *
+     * @param operations Operations to run
+     */
+    void batch(Runnable operations) {
+        inBatch.set(true);
+        try {
+            operations.run();
+        } finally {
+            inBatch.set(false);
+        }
+        commit();
+    }
+
     /**
      * Checks whether the Bank is alive
      *
@@ -78,18 +232,12 @@ public class Bank implements BankProcess {
      * @return Account ID
      */
     @Override
-    public synchronized int addAccount(int ID) {
-        // Iterate counter
-
-        // Add a new account to the existing accounts. New account
-        // created with a random number.
-        Account newAccount = new Account(ID);
-
-        //Save the Account ID and Account to HashTable
-        accounts.put(newAccount.getUniqueID(), newAccount);
+    public int addAccount(int ID) {
+        // Open the account, an account that already exists is kept
+        if (engine.create(ID)) commit();
 
         // Return new Unique ID
-        return newAccount.getUniqueID();
+        return ID;
     }
 
     /**
@@ -97,19 +245,16 @@ public class Bank implements BankProcess {
      *
      * @return Account ID
      */
-    public synchronized int addAccount() {
-        // Iterate counter
-
-        // Add a new account to the existing accounts. New account
-        // created with a random number.
-        Account newAccount = new Account(accountCount);
-        accountCount++;
-
-        //Save the Account ID and Account to HashTable
-        accounts.put(newAccount.getUniqueID(), newAccount);
+    public int addAccount() {
+        // Iterate counter, skipping IDs that were asked for directly
+        int ID;
+        do {
+            ID = accountCount.getAndIncrement();
+        } while (!engine.create(ID));
+        commit();
 
         // Return new Unique ID
-        return newAccount.getUniqueID();
+        return ID;
     }
 
     /**
@@ -119,15 +264,10 @@ public class Bank implements BankProcess {
      * @return Amount of money
      */
     @Override
-    public synchronized double getBalance(int AccountID) {
-        // Run check that would cause crash
-        if (!accounts.containsKey(AccountID)) {
-            return -1.0;
-        }
-
-        // Get the balance of an account!
-        Account account = accounts.get(AccountID);
-        return account.getBalance();
+    public double getBalance(int AccountID) {
+        // Get the balance of an account without locking!
+        long balance = engine.balance(AccountID);
+        return balance == -1 ? -1.0 : Ledger.toDollars(balance);
     }
 
     /**
@@ -138,14 +278,8 @@ public class Bank implements BankProcess {
      */
     @Override
     public double getTotalBalance(int AccountID) {
-
-        if (!accounts.containsKey(AccountID)) {
-            return -1.0;
-        }
-
-        // Get the balance of an account!
-        Account account = accounts.get(AccountID);
-        return account.getTotalBalance();
+        long total = engine.totalBalance(AccountID);
+        return total == -1 ? -1.0 : Ledger.toDollars(total);
     }
 
     /**
@@ -155,16 +289,10 @@ public class Bank implements BankProcess {
      * @param amount    Amount of Money
      */
     @Override
-    public synchronized boolean addFunds(int AccountID, double amount) {
-        // Run check that would cause crash
-        if (!accounts.containsKey(AccountID)) return false;
-
-        // Get the account
-        Account account = accounts.get(AccountID);
-
-        // Add funds to an account
-        account.addFunds(amount);
-        return true;
+    public boolean addFunds(int AccountID, double amount) {
+        boolean done = engine.deposit(AccountID, Ledger.toCents(amount));
+        if (done) commit();
+        return done;
     }
 
     /**
@@ -175,17 +303,10 @@ public class Bank implements BankProcess {
      */
     @Override
     public boolean removeFunds(int AccountID, double amount) {
-        // Run check that would cause crash
-        if (!accounts.containsKey(AccountID)) return false;
-
-        Account account = accounts.get(AccountID);
-
-        // Run logical check on balance
-        if (account.getBalance() < amount) return false;
-
-        // Remove a given amount of funds
-        account.removeFunds(amount);
-        return true;
+        // Remove a given amount of funds if the balance covers it
+        boolean done = engine.withdraw(AccountID, Ledger.toCents(amount));
+        if (done) commit();
+        return done;
     }
 
     /**
@@ -198,14 +319,25 @@ public class Bank implements BankProcess {
      * @return Random/Unique Integer of lock, for later retrieval
      */
     @Override
-    public synchronized int lockFunds(int AccountID, double amount) {
-        // Run check that would cause crash
-        if (!accounts.containsKey(AccountID)) return -1;
-
-        Account account = accounts.get(AccountID);
+    public int lockFunds(int AccountID, double amount) {
+        return lockFunds(AccountID, amount, 0);
+    }
 
-        // Return the lockID
-        return account.lockFunds(amount);
+    /**
+     * Locks money away on a lease
+     *
+     * @param AccountID Unique Identifier of Account
+     * @param amount    Amount of Money
+     * @param lease     Lease the lock goes on, 0 for none
+     * @return Identifier of the lock, -1 if it couldn't be locked
+     */
+    int lockFunds(int AccountID, double amount, int lease) {
+        int lockID = engine.lock(AccountID, Ledger.toCents(amount));
+        if (lockID != -1) {
+            leases.track(lease, AccountID, lockID);
+            commit();
+        }
+        return lockID;
     }
 
     /**
@@ -215,42 +347,99 @@ public class Bank implements BankProcess {
      * @param lockID    Identifier of the lock
      */
     @Override
-    public synchronized boolean unlockFunds(int AccountID, int lockID) {
-        // Run check that would cause crash
-        if (!accounts.containsKey(AccountID)) return false;
+    public boolean unlockFunds(int AccountID, int lockID) {
+        boolean done = engine.unlock(AccountID, lockID);
+        if (done) commit();
+        return done;
+    }
 
-        Account account = accounts.get(AccountID);
+    /**
+     * Changes the amount held by an existing lock
+     *
+     * @param AccountID Unique Identifier of Account
+     * @param lockID    Identifier of the lock
+     * @param amount    New amount of the lock
+     */
+    @Override
+    public boolean adjustLock(int AccountID, int lockID, double amount) {
+        return adjustLock(AccountID, lockID, amount, 0);
+    }
 
-        // Return status of unlock
-        return account.unlockFunds(lockID);
+    /**
+     * Changes the amount held by an existing lock and moves it onto a lease
+     *
+     * @param AccountID Unique Identifier of Account
+     * @param lockID    Identifier of the lock
+     * @param amount    New amount of the lock
+     * @param lease     Lease the lock goes on, 0 to leave it where it is
+     * @return status
+     */
+    boolean adjustLock(int AccountID, int lockID, double amount, int lease) {
+        boolean done = engine.adjustLock(AccountID, lockID,
+                Ledger.toCents(amount));
+        if (done) {
+            leases.track(lease, AccountID, lockID);
+            commit();
+        }
+        return done;
     }
 
     /**
-     * Transfer funds of amount specified from ID1 to ID2
+     * Locks funds in one account and unlocks a lock in another as one step
      *
-     * @param fromID Unique Identifier of Account1
-     * @param toID   Unique Identifier of Account2
+     * @param fromID Account holding the old lock
+     * @param lockID Identifier of the old lock
+     * @param toID   Account to lock the funds in
      * @param amount Amount of Money
+     * @return Identifier of the new lock, -1 if it couldn't be locked
      */
     @Override
-    public synchronized boolean transferFunds(int fromID, int toID,
-                                              double amount) {
-        // Run check that would cause crash
-        if (!accounts.containsKey(fromID) && !accounts.containsKey(toID)) {
-            return false;
-        }
+    public int swapLock(int fromID, int lockID, int toID, double amount) {
+        return swapLock(fromID, lockID, toID, amount, 0);
+    }
 
-        // Get the accounts
-        Account account1 = accounts.get(fromID);
-        Account account2 = accounts.get(toID);
+    /**
+     * Swaps a lock for a new one on a lease
+     *
+     * @param fromID Account holding the old lock
+     * @param lockID Identifier of the old lock
+     * @param toID   Account to lock the funds in
+     * @param amount Amount of Money
+     * @param lease  Lease the new lock goes on, 0 for none
+     * @return Identifier of the new lock, -1 if it couldn't be locked
+     */
+    int swapLock(int fromID, int lockID, int toID, double amount, int lease) {
+        int newLockID = engine.swapLock(fromID, lockID, toID,
+                Ledger.toCents(amount));
+        if (newLockID != -1) {
+            leases.track(lease, toID, newLockID);
+            commit();
+        }
+        return newLockID;
+    }
 
-        // Check for balance
-        if (account1.getBalance() < amount) return false;
+    /**
+     * Renews a lease and with it every lock on it
+     *
+     * @param lease Lease ID
+     * @return false if the lease is unknown or already expired
+     */
+    boolean renewLease(int lease) {
+        return leases.renew(lease);
+    }
 
-        // Exchange funds!
-        account1.removeFunds(amount);
-        account2.addFunds(amount);
-        return true;
+    /**
+     * Transfer funds of amount specified from ID1 to ID2
+     *
+     * @param fromID Unique Identifier of Account1
+     * @param toID   Unique Identifier of Account2
+     * @param amount Amount of Money
+     */
+    @Override
+    public boolean transferFunds(int fromID, int toID, double amount) {
+        boolean done = engine.transfer(fromID, toID, Ledger.toCents(amount));
+        if (done) commit();
+        return done;
     }
 
     /**
@@ -261,32 +450,10 @@ public class Bank implements BankProcess {
      * @param lockID Lock identifier
      */
     @Override
-    public synchronized boolean transferFunds(int fromID, int toID,
-                                              int lockID) {
-        // Run check that would cause crash
-        if (!accounts.containsKey(fromID) && !accounts.containsKey(toID)) {
-            return false;
-        }
-
-        // Get the accounts
-        Account account1 = accounts.get(fromID);
-        Account account2 = accounts.get(toID);
-
-        System.out.println(account1 + " " + account2);
-        double amount = account1.getLockedFunds(lockID);
-
-        // Synchronize on the first account so that the code is ran
-        // consecutively consistently
-        synchronized (account1) {
-            if (account1.unlockFunds(lockID)) {
-                account1.removeFunds(amount);
-                account2.addFunds(amount);
-                return true;
-            }
-        }
-
-        // Return false if it couldn't transfer the funds
-        return false;
+    public boolean transferFunds(int fromID, int toID, int lockID) {
+        boolean done = engine.transferLock(fromID, toID, lockID);
+        if (done) commit();
+        return done;
     }
 
     /**
@@ -329,29 +496,73 @@ public class Bank implements BankProcess {
      * @param networkDevice network device to notify
      */
     public void notifyAuction(NetworkDevice networkDevice) {
-        for (BankCommunicator bc : bankCommunicators) {
-            bc.notifyNewAuction(networkDevice);
+        for (BankSession session : sessions) {
+            session.notifyNewAuction(networkDevice);
         }
     }
 
+    /**
+     * Adds a connection to be notified of new auctions
+     *
+     * @param session Connected session
+     */
+    void addSession(BankSession session) {
+        sessions.add(session);
+    }
+
+    /**
+     * Removes a connection once it is closed
+     *
+     * @param session Closed session
+     */
+    void removeSession(BankSession session) {
+        sessions.remove(session);
+    }
+
+    /**
+     * @return dispatcher that runs requests against this bank
+     */
+    BankDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * @return workers selector mode requests are run on
+     */
+    ExecutorService getWorkers() {
+        return workers;
+    }
+
     /**
      * Starts a new Bank on a port given as an argument
-     * or default on bankPort.
+     * or default on bankPort. An optional second argument
+     * runs the bank on that many selector threads and a third journals to
+     * that directory.
      *
      * @param args Args
      */
     public static void main(String[] args) {
-        if (args.length == 1) {
+        if (args.length >= 1 && args.length <= 3) {
             int operatingPort;
+            int selectorThreads = 0;
+            String journalDirectory = null;
             try {
                 operatingPort = Integer.parseInt(args[0]);
+                if (args.length >= 2) {
+                    selectorThreads = Integer.parseInt(args[1]);
+                }
+                if (args.length >= 3 && !args[2].equals("-")) {
+                    journalDirectory = args[2];
+                }
             } catch (NumberFormatException e) {
                 System.out.println("Input not correct:\n Correct usage: Bank" +
-                        " <Operating Port>");
+                        " <Operating Port> [Selector Threads]" +
+                        " [Journal Directory or -]");
                 return;
             }
 
-            Bank bank = new Bank(operatingPort);
+            Bank bank = new Bank(operatingPort, selectorThreads,
+                    journalDirectory);
         } else {
             Bank bank = new Bank(bankPort);
         }
@@ -359,4 +570,3 @@ public class Bank implements BankProcess {
     }
 
 }
-
@@ -1,23 +1,22 @@
 package Bank;
 
+import BankProxy.BankCodec;
 import BankProxy.BankInfo;
 import BankProxy.BankRequest;
+import Concurrency.ThreadRunner;
 import Network.NetworkDevice;
+import Network.PacketStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
-import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * Dedicated thread for a socket connection
  */
-public class BankCommunicator implements Runnable {
+public class BankCommunicator implements Runnable, BankSession {
 
     private Socket s;
     private Bank bank;
-    private ObjectInputStream is;
-    private ObjectOutputStream os;
+    private PacketStream<BankRequest> stream;
 
     /**
      * Thread for communication with a single socket
@@ -31,17 +30,17 @@ public class BankCommunicator implements Runnable {
         this.s = s;
         this.bank = bank;
 
-        // Create new ObjectDataStreams
+        // Open the stream in whichever format the client picked
         try {
-            is = new ObjectInputStream(s.getInputStream());
-            os = new ObjectOutputStream(s.getOutputStream());
+            stream = PacketStream.accept(s, new BankCodec());
         } catch (IOException e) {
             e.printStackTrace();
             return;
         }
 
         // Start new thread for processing messages
-        new Thread(this).start();
+        bank.addSession(this);
+        ThreadRunner.start(this);
     }
 
     /**
@@ -58,7 +57,7 @@ public class BankCommunicator implements Runnable {
         while(s.isConnected() && bank.isAlive()) {
             try {
                 // Process BankRequest from input stream
-                BankRequest br = (BankRequest)is.readObject();
+                BankRequest br = stream.read();
 
                 // Throw error if br is not processable
                 if (br == null) throw new ClassNotFoundException();
@@ -73,129 +72,27 @@ public class BankCommunicator implements Runnable {
                 } catch (IOException e1) {
 
                     e1.printStackTrace();
-                    return;
                 }
                 break;
             }
         }
 
+        // Stop notifying a connection that is gone
+        bank.removeSession(this);
         System.out.println("Connection broke for " + s.getInetAddress());
     }
 
     /**
-     * Process the AuctionRequest and the respond appropriately
+     * Process the BankRequest and the respond appropriately
      *
-     * @param br AuctionRequest to handle
+     * @param br BankRequest to handle
      */
     private void processMessage(BankRequest br) {
-        System.out.println("THE TYPE OF REQUEST IS: " + br.getType());
-
-        // Create a response for br
-        BankRequest response = new BankRequest(br.getType(), br.getPacketID());
-
-        // Check type and map appropriate actions
-        switch (br.getType()) {
-            case NEWACCOUNT: // Create a new account
-                int accountID = bank.addAccount();
-
-                response.setID(accountID);
-
-                System.out.println("\tNew Account Created: " + accountID);
-                break;
-            case GETBALANCE: // Get the balance of the given account
-                double balance = bank.getBalance(br.getID());
-                response.setAmount(balance);
-
-                System.out.println("\tBalance for Account#: " + br.getID() +
-                        " is $" + balance);
-                break;
-            case GETTOTALBALANCE:
-                double total = bank.getTotalBalance(br.getID());
-                response.setAmount(total);
-
-                System.out.println("\tTotal balance for Account#: " +
-                        br.getID() + " is $" + total);
-                break;
-            case ADD: // AddFunds to a given Account
-                double bal1 = bank.getBalance(br.getID());
-                response.setStatus(bank.addFunds(br.getID(), br.getAmount()));
-                double bal2 = bank.getBalance(br.getID());
-
-                System.out.println("\tAdded funds to Account#: " + br.getID() +
-                        " | Amount Added: $" + br.getAmount() + " | Old Bala" +
-                        "nce: $" + bal1 + " | New Balance: $" + bal2);
-                break;
-            case REMOVE: // RemoveFunds from given account
-                double bal3 = bank.getBalance(br.getID());
-                response.setStatus(bank.removeFunds(br.getID(),br.getAmount()));
-                double bal4 = bank.getBalance(br.getID());
-
-                System.out.println("\tAdded funds to Account#: " + br.getID() +
-                        " | Amount Added: $" + br.getAmount() + " | Old Bala" +
-                        "nce: $" + bal3 + " | New Balance: $" + bal4);
-                break;
-            case LOCK: // Lock funds of the given account
-                int lockNumber = bank.lockFunds(br.getID(), br.getAmount());
-                response.setLockNumber(lockNumber);
-
-                System.out.println("\tLocked funds to Account#: " + br.getID() +
-                        " | Amount locked: $" + br.getAmount() + " | Lock Num" +
-                        "ber: $" + lockNumber);
-                break;
-            case UNLOCK: // Unlock funds of the given account
-                response.setStatus(bank.unlockFunds(br.getID(),
-                        br.getLockNumber()));
-
-                System.out.println("\tUnlocked funds for Account#: " +
-                        br.getID());
-                break;
-            case TRANSFER: // Transfer funds from account1 to account2
-                response.setStatus(bank.transferFunds(br.getID(), br.getToID(),
-                        br.getAmount()));
-
-                System.out.println("\tTransferred $" + br.getAmount() + " fro" +
-                        "m Account#: " + br.getID() + " to Account#: " +
-                        br.getToID());
-                break;
-            case TRANSFERFROMLOCK: // Transfer funds based on a lock
-                response.setStatus(bank.transferFunds(br.getID(), br.getToID(),
-                        br.getLockNumber()));
-
-                System.out.println("\tTransferred $" + br.getLockNumber() +
-                        " from Account#: " + br.getID() + " to Account#: " +
-                        br.getToID());
-                break;
-            case OPENAUCTION:
-                response.setStatus(true);
-                bank.openServer(br.getNetworkDevice());
-
-                bank.notifyAuction(br.getNetworkDevice());
-
-                System.out.println("\tNew Server on " + br.getNetworkDevice());
-                break;
-            case CLOSEAUCTION:
-                response.setStatus(true);
-                bank.closeServer(br.getNetworkDevice());
-
-                System.out.println("\tStopped distributing the server of " +
-                        br.getNetworkDevice());
-                break;
-            case GETAUCTIONS:
-                LinkedBlockingQueue<NetworkDevice> auctions = bank.getServers();
-
-                System.out.print("\tSending the following servers: \n\t");
-                for (NetworkDevice nd : auctions) {
-                    System.out.print(nd + " ");
-                }
-                System.out.println();
-
-                response.setNetworkDevices(auctions);
-                break;
-        }
+        BankRequest response = bank.getDispatcher().handle(br);
 
         try {
             // Write a response back
-            os.writeObject(response);
+            stream.write(response);
             System.out.println("\tSent Message!\n");
         } catch (IOException e) {
             e.printStackTrace();
@@ -208,13 +105,14 @@ public class BankCommunicator implements Runnable {
      *
      * @param networkDevice network device of new auction
      */
+    @Override
     public void notifyNewAuction(NetworkDevice networkDevice) {
         BankRequest ar = new BankRequest(BankInfo.OPENAUCTION);
         ar.setAck(false);
         ar.addNetworkDevices(networkDevice);
 
         try {
-            os.writeObject(ar);
+            stream.write(ar);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,182 @@
+package Bank;
+
+import BankProxy.BankInfo;
+import BankProxy.BankRequest;
+import Network.NetworkDevice;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Maps BankRequests onto the Bank and builds the responses.
+ * Shared by the threaded and the selector server modes.
+ */
+class BankDispatcher {
+
+    private Bank bank;
+
+    /**
+     * Dispatcher for the given bank
+     *
+     * @param bank Bank to run requests against
+     */
+    BankDispatcher(Bank bank) {
+        this.bank = bank;
+    }
+
+    /**
+     * Process the BankRequest and create the response for it
+     *
+     * @param br BankRequest to handle
+     * @return response to send back
+     */
+    BankRequest handle(BankRequest br) {
+        System.out.println("THE TYPE OF REQUEST IS: " + br.getType());
+
+        // Create a response for br
+        BankRequest response = new BankRequest(br.getType(), br.getPacketID());
+
+        // Check type and map appropriate actions
+        switch (br.getType()) {
+            case NEWACCOUNT: // Create a new account
+                int accountID = bank.addAccount();
+
+                response.setID(accountID);
+
+                System.out.println("\tNew Account Created: " + accountID);
+                break;
+            case GETBALANCE: // Get the balance of the given account
+                double balance = bank.getBalance(br.getID());
+                response.setAmount(balance);
+
+                System.out.println("\tBalance for Account#: " + br.getID() +
+                        " is $" + balance);
+                break;
+            case GETTOTALBALANCE:
+                double total = bank.getTotalBalance(br.getID());
+                response.setAmount(total);
+
+                System.out.println("\tTotal balance for Account#: " +
+                        br.getID() + " is $" + total);
+                break;
+            case ADD: // AddFunds to a given Account
+                double bal1 = bank.getBalance(br.getID());
+                response.setStatus(bank.addFunds(br.getID(), br.getAmount()));
+                double bal2 = bank.getBalance(br.getID());
+
+                System.out.println("\tAdded funds to Account#: " + br.getID() +
+                        " | Amount Added: $" + br.getAmount() + " | Old Bala" +
+                        "nce: $" + bal1 + " | New Balance: $" + bal2);
+                break;
+            case REMOVE: // RemoveFunds from given account
+                double bal3 = bank.getBalance(br.getID());
+                response.setStatus(bank.removeFunds(br.getID(),br.getAmount()));
+                double bal4 = bank.getBalance(br.getID());
+
+                System.out.println("\tAdded funds to Account#: " + br.getID() +
+                        " | Amount Added: $" + br.getAmount() + " | Old Bala" +
+                        "nce: $" + bal3 + " | New Balance: $" + bal4);
+                break;
+            case LOCK: // Lock funds of the given account
+                int lockNumber = bank.lockFunds(br.getID(), br.getAmount(),
+                        br.getLease());
+                response.setLockNumber(lockNumber);
+
+                System.out.println("\tLocked funds to Account#: " + br.getID() +
+                        " | Amount locked: $" + br.getAmount() + " | Lock Num" +
+                        "ber: $" + lockNumber);
+                break;
+            case UNLOCK: // Unlock funds of the given account
+                response.setStatus(bank.unlockFunds(br.getID(),
+                        br.getLockNumber()));
+
+                System.out.println("\tUnlocked funds for Account#: " +
+                        br.getID());
+                break;
+            case ADJUSTLOCK: // Change the amount of a lock
+                response.setStatus(bank.adjustLock(br.getID(),
+                        br.getLockNumber(), br.getAmount(), br.getLease()));
+
+                System.out.println("\tAdjusted lock " + br.getLockNumber() +
+                        " for Account#: " + br.getID() + " to $" +
+                        br.getAmount());
+                break;
+            case SWAPLOCK: // Lock in one account, unlock in another
+                int swappedLock = bank.swapLock(br.getID(), br.getLockNumber(),
+                        br.getToID(), br.getAmount(), br.getLease());
+                response.setLockNumber(swappedLock);
+
+                System.out.println("\tSwapped lock " + br.getLockNumber() +
+                        " of Account#: " + br.getID() + " for lock " +
+                        swappedLock + " of Account#: " + br.getToID() +
+                        " | Amount locked: $" + br.getAmount());
+                break;
+            case TRANSFER: // Transfer funds from account1 to account2
+                response.setStatus(bank.transferFunds(br.getID(), br.getToID(),
+                        br.getAmount()));
+
+                System.out.println("\tTransferred $" + br.getAmount() + " fro" +
+                        "m Account#: " + br.getID() + " to Account#: " +
+                        br.getToID());
+                break;
+            case TRANSFERFROMLOCK: // Transfer funds based on a lock
+                response.setStatus(bank.transferFunds(br.getID(), br.getToID(),
+                        br.getLockNumber()));
+
+                System.out.println("\tTransferred $" + br.getLockNumber() +
+                        " from Account#: " + br.getID() + " to Account#: " +
+                        br.getToID());
+                break;
+            case OPENAUCTION:
+                response.setStatus(true);
+                bank.openServer(br.getNetworkDevice());
+
+                bank.notifyAuction(br.getNetworkDevice());
+
+                System.out.println("\tNew Server on " + br.getNetworkDevice());
+                break;
+            case CLOSEAUCTION:
+                response.setStatus(true);
+                bank.closeServer(br.getNetworkDevice());
+
+                System.out.println("\tStopped distributing the server of " +
+                        br.getNetworkDevice());
+                break;
+            case GETAUCTIONS:
+                LinkedBlockingQueue<NetworkDevice> auctions = bank.getServers();
+
+                System.out.print("\tSending the following servers: \n\t");
+                for (NetworkDevice nd : auctions) {
+                    System.out.print(nd + " ");
+                }
+                System.out.println();
+
+                response.setNetworkDevices(auctions);
+                break;
+            case RENEWLEASE: // Keep every lock of a lease
+                response.setStatus(bank.renewLease(br.getLease()));
+
+                System.out.println("\tRenewed lease " + br.getLease());
+                break;
+            case BATCH: // Run each operation in order, committed together
+                if (br.getOperations() == null) break;
+
+                bank.batch(() -> {
+                    for (BankRequest operation : br.getOperations()) {
+                        // A batch inside a batch is not run
+                        if (operation.getType() == BankInfo.BATCH) {
+                            response.addOperation(new BankRequest(
+                                    BankInfo.BATCH, operation.getPacketID()));
+                        } else {
+                            response.addOperation(handle(operation));
+                        }
+                    }
+                });
+                response.setStatus(true);
+
+                System.out.println("\tRan a batch of " +
+                        br.getOperations().size() + " operations");
+                break;
+        }
+
+        return response;
+    }
+}
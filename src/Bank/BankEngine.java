@@ -0,0 +1,109 @@
+package Bank;
+
+/**
+ * Applies account operations for the Bank, every amount is in whole cents.
+ *
+ * The Ledger is the locking engine, every request thread changes it
+ * directly under the stripes of the accounts involved.
+ */
+interface BankEngine {
+
+    /**
+     * Opens an account with a balance of zero
+     *
+     * @param id Account ID
+     * @return false if the ID is taken or negative
+     */
+    boolean create(int id);
+
+    /**
+     * @param id Account ID
+     * @return balance in cents, -1 if there is no such account
+     */
+    long balance(int id);
+
+    /**
+     * @param id Account ID
+     * @return balance plus every lock of the account in cents, -1 if there
+     * is no such account
+     */
+    long totalBalance(int id);
+
+    /**
+     * @param id Account ID
+     * @param cents Amount to add
+     * @return false if there is no such account
+     */
+    boolean deposit(int id, long cents);
+
+    /**
+     * @param id Account ID
+     * @param cents Amount to take out
+     * @return false if there is no such account or the balance is too low
+     */
+    boolean withdraw(int id, long cents);
+
+    /**
+     * @param id Account ID
+     * @param cents Amount to lock
+     * @return lock ID, -1 if it couldn't be locked
+     */
+    int lock(int id, long cents);
+
+    /**
+     * @param id Account ID
+     * @param lockID Lock to give back
+     * @return false if there is no such lock
+     */
+    boolean unlock(int id, int lockID);
+
+    /**
+     * @param id Account ID
+     * @param lockID Lock to change
+     * @param cents New amount of the lock
+     * @return false if there is no such lock or the balance is too low
+     */
+    boolean adjustLock(int id, int lockID, long cents);
+
+    /**
+     * @param fromID Account holding the old lock
+     * @param lockID Old lock ID
+     * @param toID Account to lock the money in
+     * @param cents Amount to lock
+     * @return new lock ID, -1 if nothing changed because the old lock is
+     * gone or the new one couldn't be made
+     */
+    int swapLock(int fromID, int lockID, int toID, long cents);
+
+    /**
+     * @param fromID Account to take from
+     * @param toID Account to give to
+     * @param cents Amount to move
+     * @return false if nothing changed
+     */
+    boolean transfer(int fromID, int toID, long cents);
+
+    /**
+     * @param fromID Account holding the lock
+     * @param toID Account to give to
+     * @param lockID Lock to pay out
+     * @return false if nothing changed
+     */
+    boolean transferLock(int fromID, int toID, int lockID);
+
+    /**
+     * @param id Account ID
+     * @param lockID Lock to give back
+     * @param lease Lease that expired
+     * @return false if the lock is gone or belongs to another lease
+     */
+    boolean unlockLeased(int id, int lockID, int lease);
+
+    /**
+     * @param id Account ID
+     * @param lockID Lock to put on the lease
+     * @param lease Lease ID, 0 to take it off any lease
+     * @return false if there is no such lock
+     */
+    boolean setLease(int id, int lockID, int lease);
+}
@@ -0,0 +1,115 @@
+package Bank;
+
+import BankProxy.BankInfo;
+import BankProxy.BankRequest;
+import Network.NetworkDevice;
+import Network.PacketHandler;
+import Network.SelectorConnection;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Handles Bank connections in selector mode.
+ *
+ * Requests are handed from the selector thread that decoded them to the
+ * Bank's workers, since a journaled change waits until it's on disk, and
+ * responses are queued on the same connection by the worker that ran them.
+ */
+class BankSelectorHandler implements PacketHandler<BankRequest> {
+
+    private Bank bank;
+    private ConcurrentHashMap<SelectorConnection<BankRequest>, Session>
+            sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Handler for the given bank
+     *
+     * @param bank Bank to run requests against
+     */
+    BankSelectorHandler(Bank bank) {
+        this.bank = bank;
+    }
+
+    /**
+     * Registers the new connection for notifications
+     *
+     * @param connection New connection
+     */
+    @Override
+    public void connected(SelectorConnection<BankRequest> connection) {
+        Session session = new Session(connection);
+        sessions.put(connection, session);
+        bank.addSession(session);
+
+        System.out.println("Started new selector session for: " +
+                connection.getRemoteAddress());
+    }
+
+    /**
+     * Hands a request to a worker, which queues the response
+     *
+     * @param connection Connection it arrived on
+     * @param br Request that was decoded
+     */
+    @Override
+    public void received(SelectorConnection<BankRequest> connection,
+                         BankRequest br) {
+        bank.getWorkers().execute(() -> {
+            BankRequest response = bank.getDispatcher().handle(br);
+
+            try {
+                connection.send(response);
+                System.out.println("\tQueued Message!\n");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Forgets a closed connection
+     *
+     * @param connection Connection that closed
+     */
+    @Override
+    public void disconnected(SelectorConnection<BankRequest> connection) {
+        Session session = sessions.remove(connection);
+        if (session != null) bank.removeSession(session);
+
+        System.out.println("Connection broke for " +
+                connection.getRemoteAddress());
+    }
+
+    /**
+     * Session wrapping a selector connection
+     */
+    private static class Session implements BankSession {
+
+        private SelectorConnection<BankRequest> connection;
+
+        /**
+         * @param connection Connection of the session
+         */
+        Session(SelectorConnection<BankRequest> connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * Queues a new auction notification
+         *
+         * @param networkDevice network device of new auction
+         */
+        @Override
+        public void notifyNewAuction(NetworkDevice networkDevice) {
+            BankRequest ar = new BankRequest(BankInfo.OPENAUCTION);
+            ar.setAck(false);
+            ar.addNetworkDevices(networkDevice);
+
+            try {
+                connection.send(ar);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
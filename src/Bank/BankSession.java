@@ -0,0 +1,16 @@
+package Bank;
+
+import Network.NetworkDevice;
+
+/**
+ * A client connection of the Bank, whichever server mode it runs in
+ */
+interface BankSession {
+
+    /**
+     * Notifies the client of a new auction
+     *
+     * @param networkDevice network device of new auction
+     */
+    void notifyNewAuction(NetworkDevice networkDevice);
+}
@@ -0,0 +1,332 @@
+package Bank;
+
+import Concurrency.ThreadRunner;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-ahead journal of every change made to the Ledger.
+ *
+ * Each change is one fixed size record appended to memory-mapped segment
+ * files, rolling over to a new file when one is full. Appending never
+ * touches the disk. Callers that need their change to be durable call
+ * commit, and a flusher thread forces everything written so far in one go,
+ * so everyone who committed in the meantime shares that force.
+ *
+ * On startup the records are replayed in order to rebuild the Ledger,
+ * starting from the first record a snapshot doesn't cover. Each record's
+ * log sequence number is its index plus one.
+ *
+ * Record layout: int op, int account, int other account, int lock ID,
+ * long cents. An op of zero marks the end of the journal.
+ */
+class Journal implements Runnable {
+
+    // Record types
+    static final int CREATE = 1;
+    static final int DEPOSIT = 2;
+    static final int WITHDRAW = 3;
+    static final int LOCK = 4;
+    static final int UNLOCK = 5;
+    static final int ADJUST = 6;
+    static final int SWAP = 7;
+    static final int TRANSFER = 8;
+    static final int TRANSFERLOCK = 9;
+
+    // Stands in for a record lost in a crash that a snapshot already has,
+    // never replayed
+    static final int SKIP = 10;
+
+    // A lock put on a lease, the lease ID in the amount
+    static final int LEASE = 11;
+
+    private static final int RECORD_BYTES = 24;
+    private static final int RECORDS_PER_SEGMENT = 1 << 21;
+    private static final long SEGMENT_BYTES =
+            (long) RECORD_BYTES * RECORDS_PER_SEGMENT;
+
+    private File directory;
+    private ArrayList<MappedByteBuffer> segments = new ArrayList<>();
+
+    // Bytes written, bytes known to be on disk, and bytes someone waits on
+    private long position = 0;
+    private long durable = 0;
+    private long requested = 0;
+
+    private ReentrantLock lock = new ReentrantLock();
+    private Condition flushNeeded = lock.newCondition();
+    private Condition flushed = lock.newCondition();
+
+    /**
+     * @param op Record type
+     * @return whether the record changes a second account
+     */
+    static boolean touchesTwo(int op) {
+        return op == SWAP || op == TRANSFER || op == TRANSFERLOCK;
+    }
+
+    /**
+     * Receives the records of the journal during replay
+     */
+    interface Replayer {
+
+        /**
+         * @param lsn Log sequence number of the record
+         * @param op Record type
+         * @param account Account ID
+         * @param other Other account ID, if any
+         * @param lockID Lock ID, if any
+         * @param cents Amount, if any
+         */
+        void apply(long lsn, int op, int account, int other, int lockID,
+                   long cents);
+    }
+
+    /**
+     * Journal in the given directory, made if missing. Nothing can be
+     * appended before it's replayed.
+     *
+     * @param directory Directory holding the segment files
+     */
+    Journal(File directory) {
+        this.directory = directory;
+        directory.mkdirs();
+    }
+
+    /**
+     * Replays the records from the given one on in order and starts the
+     * flusher
+     *
+     * A snapshot may hold changes whose records never reached the disk, so
+     * the journal goes on from no earlier than the snapshot's highest log
+     * sequence number and those numbers aren't given out again.
+     *
+     * @param startRecord Index of the first record to replay
+     * @param highestLsn Highest log sequence number the snapshot holds
+     * @param replayer Receives the records
+     * @return number of records replayed
+     * @throws IOException if a segment can't be mapped
+     */
+    long replay(long startRecord, long highestLsn, Replayer replayer)
+            throws IOException {
+        long records = 0;
+        int index = (int) (startRecord / RECORDS_PER_SEGMENT);
+        int offset = (int) (startRecord % RECORDS_PER_SEGMENT) * RECORD_BYTES;
+        position = startRecord * RECORD_BYTES;
+
+        // Segments before the start are gone or not needed
+        while (segments.size() < index) segments.add(null);
+
+        for (; segmentFile(index).exists(); index++, offset = 0) {
+            MappedByteBuffer segment = map(index);
+            segments.add(segment);
+
+            // Read until the end marker or the end of the segment
+            while (offset < SEGMENT_BYTES) {
+                int op = segment.getInt(offset);
+                if (op == 0) break;
+
+                if (op != SKIP) replayer.apply(position / RECORD_BYTES + 1, op,
+                        segment.getInt(offset + 4),
+                        segment.getInt(offset + 8),
+                        segment.getInt(offset + 12),
+                        segment.getLong(offset + 16));
+                offset += RECORD_BYTES;
+                position += RECORD_BYTES;
+                records++;
+            }
+
+            if (offset < SEGMENT_BYTES) break;
+        }
+
+        durable = position;
+        requested = position;
+
+        // Fill in what was lost, forced along with the next commit
+        while (position / RECORD_BYTES < highestLsn) append(SKIP, 0, 0, 0, 0);
+
+        ThreadRunner.start(this);
+        return records;
+    }
+
+    /**
+     * Appends a record, called while the accounts it changes are locked so
+     * records of one account are in the order the changes were made
+     *
+     * @param op Record type
+     * @param account Account ID
+     * @param other Other account ID, if any
+     * @param lockID Lock ID, if any
+     * @param cents Amount, if any
+     * @return log sequence number of the record
+     */
+    long append(int op, int account, int other, int lockID, long cents) {
+        lock.lock();
+        try {
+            int index = (int) (position / SEGMENT_BYTES);
+            int offset = (int) (position % SEGMENT_BYTES);
+
+            // Roll over to a new segment
+            if (index == segments.size()) segments.add(map(index));
+            MappedByteBuffer segment = segments.get(index);
+
+            // The op goes last, a half written record reads as the end
+            segment.putInt(offset + 4, account);
+            segment.putInt(offset + 8, other);
+            segment.putInt(offset + 12, lockID);
+            segment.putLong(offset + 16, cents);
+            segment.putInt(offset, op);
+
+            position += RECORD_BYTES;
+            return position / RECORD_BYTES;
+        } catch (IOException e) {
+            throw new IllegalStateException("Journal segment failed", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of records appended so far, the index the next one
+     * gets
+     */
+    long records() {
+        lock.lock();
+        try {
+            return position / RECORD_BYTES;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the segment files holding only records before the given one,
+     * once a snapshot covers them
+     *
+     * @param record Index of the first record still needed
+     */
+    void discardBefore(long record) {
+        int last = (int) (record / RECORDS_PER_SEGMENT);
+        for (int index = last - 1; index >= 0; index--) {
+            File file = segmentFile(index);
+            if (!file.exists()) break;
+            file.delete();
+        }
+    }
+
+    /**
+     * Waits until everything appended so far is on disk. The calls made
+     * while a force is running all share the next one.
+     */
+    void commit() {
+        lock.lock();
+        try {
+            long target = position;
+            if (durable >= target) return;
+
+            if (requested < target) {
+                requested = target;
+                flushNeeded.signal();
+            }
+            while (durable < target) flushed.awaitUninterruptibly();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flusher, forces the written segments whenever a commit waits
+     */
+    @Override
+    public void run() {
+        ArrayList<MappedByteBuffer> toForce = new ArrayList<>();
+
+        while (true) {
+            long target;
+
+            lock.lock();
+            try {
+                while (requested <= durable) flushNeeded.awaitUninterruptibly();
+
+                // Everything written by now goes in this force
+                target = position;
+                int first = (int) (durable / SEGMENT_BYTES);
+                int last = (int) ((target - 1) / SEGMENT_BYTES);
+                for (int i = first; i <= last; i++) {
+                    toForce.add(segments.get(i));
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            for (MappedByteBuffer segment : toForce) segment.force();
+            toForce.clear();
+
+            lock.lock();
+            try {
+                // Full segments are never written again, let them unmap
+                for (int i = 0; i < target / SEGMENT_BYTES; i++) {
+                    segments.set(i, null);
+                }
+
+                durable = target;
+                flushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Maps a whole segment, making the file if it's missing
+     *
+     * @param index Segment number
+     * @return mapped segment
+     * @throws IOException if it can't be mapped
+     */
+    private MappedByteBuffer map(int index) throws IOException {
+        File segment = segmentFile(index);
+        boolean created = !segment.exists();
+
+        MappedByteBuffer mapped;
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            mapped = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    SEGMENT_BYTES);
+        }
+
+        // Records forced into a file the directory forgot are still lost
+        if (created) syncDirectory(directory);
+        return mapped;
+    }
+
+    /**
+     * Forces a directory's entries to disk, so files made, renamed or
+     * deleted in it stay that way after a crash
+     *
+     * @param directory Directory to force
+     */
+    static void syncDirectory(File directory) {
+        try (FileChannel channel = FileChannel.open(directory.toPath(),
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Some platforms can't open a directory, nothing more to do there
+            System.out.println("Couldn't force directory " + directory);
+        }
+    }
+
+    /**
+     * @param index Segment number
+     * @return file of the segment
+     */
+    private File segmentFile(int index) {
+        return new File(directory, String.format("journal-%08d.seg", index));
+    }
+}
@@ -0,0 +1,246 @@
+package Bank;
+
+import Concurrency.HashedWheelTimer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Leases on the locks that clients make.
+ *
+ * A client picks a lease ID and sends it with every lock it makes, then
+ * renews the lease now and then with one request for all of its locks.
+ * When a lease goes a whole lease time without being renewed, every lock
+ * still on it is unlocked, so a client that died can't freeze funds.
+ *
+ * Each lease has one timeout on a timer wheel, renewing only moves its
+ * expiry time and the timeout catches up when it fires, so a tick costs
+ * the same however many locks there are. An expired lease is released a
+ * batch of locks at a time.
+ *
+ * An expired lease leaves a tombstone behind, so the next renewal of that
+ * lease ID fails once even when a new lock already started the lease over.
+ * That's how a client learns its older locks were let go.
+ *
+ * Which lease a lock is on is journaled and snapshotted with the lock, so
+ * after a restart every lease starts over and a client that never comes
+ * back still has its locks let go.
+ */
+class Leases {
+
+    // Locks released per run of the timer
+    private static final int RELEASE_BATCH = 256;
+
+    // Stale keys are swept once a lease has this many
+    private static final int MIN_SWEEP = 64;
+
+    // Lease times a tombstone waits for a renewal before it's dropped
+    private static final int TOMBSTONE_LEASES = 10;
+
+    private Ledger ledger;
+    private BankEngine engine;
+    private HashedWheelTimer timer;
+    private long leaseNanos;
+    private Runnable commit;
+    private ConcurrentHashMap<Integer, Lease> leases =
+            new ConcurrentHashMap<>();
+    private ConcurrentHashMap<Integer, Lease> tombstones =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Leases on the locks of a ledger
+     *
+     * @param ledger Ledger holding the locks
+     * @param engine Engine that unlocks expired locks
+     * @param timer Timer that expires the leases
+     * @param leaseMillis How long a lease lasts without being renewed
+     * @param commit Waits until released locks are on disk
+     */
+    Leases(Ledger ledger, BankEngine engine, HashedWheelTimer timer,
+           long leaseMillis, Runnable commit) {
+        this.ledger = ledger;
+        this.engine = engine;
+        this.timer = timer;
+        this.leaseNanos = TimeUnit.MILLISECONDS.toNanos(leaseMillis);
+        this.commit = commit;
+    }
+
+    /**
+     * Puts a lock on a lease, taking it off any lease it was on
+     *
+     * @param leaseID Lease ID, 0 for none
+     * @param id Account ID
+     * @param lockID Lock ID
+     */
+    void track(int leaseID, int id, int lockID) {
+        if (leaseID == 0 || lockID == -1) return;
+        if (!engine.setLease(id, lockID, leaseID)) return;
+
+        adopt(leaseID, ((long) id << 32) | (lockID & 0xFFFFFFFFL));
+    }
+
+    /**
+     * Starts leases over for the locks the rebuilt ledger has on them, each
+     * with a whole lease time to be renewed in
+     */
+    void recover() {
+        int[] count = new int[1];
+        ledger.forEachLease((key, leaseID) -> {
+            adopt(leaseID, key);
+            count[0]++;
+        });
+
+        if (count[0] > 0) {
+            System.out.println("Recovered " + leases.size() + " leases on " +
+                    count[0] + " locks");
+        }
+    }
+
+    /**
+     * Adds a lock the ledger has on a lease to that lease's keys
+     *
+     * @param leaseID Lease ID
+     * @param key Account ID high and lock ID low
+     */
+    private void adopt(int leaseID, long key) {
+        while (true) {
+            Lease lease = leases.computeIfAbsent(leaseID, Lease::new);
+            synchronized (lease) {
+                // Lost a race with its expiry, start a new lease
+                if (lease.expired) continue;
+
+                lease.expiresAt = System.nanoTime() + leaseNanos;
+                lease.keys.put(key, 1);
+                if (lease.keys.size() >= lease.sweepAt) sweep(lease);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Renews a lease and with it every lock on it
+     *
+     * @param leaseID Lease ID
+     * @return false if there is no such lease or it expired since the last
+     *         renewal
+     */
+    boolean renew(int leaseID) {
+        // The client hears about an expiry once
+        if (tombstones.remove(leaseID) != null) return false;
+
+        Lease lease = leases.get(leaseID);
+        if (lease == null) return false;
+
+        synchronized (lease) {
+            if (lease.expired) {
+                tombstones.remove(leaseID, lease);
+                return false;
+            }
+            lease.expiresAt = System.nanoTime() + leaseNanos;
+            return true;
+        }
+    }
+
+    /**
+     * Drops keys of locks that are gone or on another lease, called with
+     * the lease held. Only runs once the keys doubled, so it's cheap spread
+     * over the locks.
+     *
+     * @param lease Lease to sweep
+     */
+    private void sweep(Lease lease) {
+        LongLongMap keys = lease.keys;
+        long[] stale = new long[keys.size()];
+        int count = 0;
+
+        for (int slot = 0; slot < keys.capacity(); slot++) {
+            long key = keys.keyAt(slot);
+            if (key == 0) continue;
+
+            if (ledger.leaseOf((int) (key >>> 32), (int) key) != lease.id) {
+                stale[count++] = key;
+            }
+        }
+        for (int i = 0; i < count; i++) keys.remove(stale[i], 0);
+
+        lease.sweepAt = Math.max(MIN_SWEEP, keys.size() * 2);
+    }
+
+    /**
+     * Runs when a lease's timeout fires, waits longer if it was renewed and
+     * releases it otherwise
+     *
+     * @param lease Lease to check
+     */
+    private void check(Lease lease) {
+        long remaining = lease.expiresAt - System.nanoTime();
+        if (remaining > 0 && !lease.expired) {
+            timer.schedule(() -> check(lease),
+                    TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+            return;
+        }
+
+        long[] batch = new long[RELEASE_BATCH];
+        int count = 0;
+        boolean more;
+
+        synchronized (lease) {
+            if (!lease.expired) {
+                lease.expired = true;
+                tombstones.put(lease.id, lease);
+                leases.remove(lease.id, lease);
+                timer.schedule(() -> tombstones.remove(lease.id, lease),
+                        TimeUnit.NANOSECONDS.toMillis(leaseNanos) *
+                                TOMBSTONE_LEASES);
+            }
+
+            // Take a batch of keys, the rest wait for the next run
+            LongLongMap keys = lease.keys;
+            for (int slot = 0; slot < keys.capacity() &&
+                    count < RELEASE_BATCH; slot++) {
+                long key = keys.keyAt(slot);
+                if (key != 0) batch[count++] = key;
+            }
+            for (int i = 0; i < count; i++) keys.remove(batch[i], 0);
+            more = keys.size() > 0;
+        }
+
+        int released = 0;
+        for (int i = 0; i < count; i++) {
+            long key = batch[i];
+            if (engine.unlockLeased((int) (key >>> 32), (int) key, lease.id)) {
+                released++;
+            }
+        }
+        if (released > 0) {
+            commit.run();
+            System.out.println("Lease " + lease.id + " expired, released " +
+                    released + " locks");
+        }
+
+        if (more) timer.schedule(() -> check(lease), 0);
+    }
+
+    /**
+     * Keys of the locks on one lease and when it runs out
+     */
+    private class Lease {
+
+        private final int id;
+        private final LongLongMap keys = new LongLongMap();
+        private volatile long expiresAt;
+        private boolean expired;
+        private int sweepAt = MIN_SWEEP;
+
+        /**
+         * New lease, its timeout is scheduled right away
+         *
+         * @param id Lease ID
+         */
+        private Lease(Integer id) {
+            this.id = id;
+            this.expiresAt = System.nanoTime() + leaseNanos;
+            timer.schedule(() -> check(this),
+                    TimeUnit.NANOSECONDS.toMillis(leaseNanos));
+        }
+    }
+}
@@ -0,0 +1,757 @@
+package Bank;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+
+/**
+ * Columnar store of every account in the Bank.
+ *
+ * Balances are whole cents in pages of longs indexed by account ID, so an
+ * account costs a few columns of primitives instead of an object. Locks
+ * live in primitive maps keyed by account and lock ID together, lock IDs
+ * count up per account, and the total locked per account is kept as its
+ * own column so the total balance never walks the locks. Nothing is boxed
+ * and an operation allocates nothing.
+ *
+ * Accounts are guarded by striped monitors, an account always uses the
+ * stripe picked by its ID and so does the lock map holding its locks.
+ * Operations on two accounts take both stripes lowest first so they can't
+ * deadlock. Balances are read without a lock.
+ *
+ * A lock can belong to a lease, kept next to the lock in a map of the same
+ * stripe and dropped with the lock. Putting a lock on a lease is journaled
+ * and snapshotted, so the lease survives a restart.
+ *
+ * With a Journal set, every change is appended to it while the accounts
+ * are still locked, and apply replays those records. Each account keeps the
+ * sequence number of the last record that changed it, so a snapshot taken
+ * stripe by stripe while requests run can still be topped up exactly from
+ * the journal.
+ */
+class Ledger implements BankEngine {
+
+    // Accounts per page
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int MAX_PAGES = 1 << (31 - PAGE_BITS);
+
+    // Number of monitors the accounts are spread over
+    static final int STRIPES = 4096;
+    private static final int STRIPE_MASK = STRIPES - 1;
+
+    // Returned by the lock maps for a missing lock
+    private static final long NO_LOCK = Long.MIN_VALUE;
+
+    private AtomicReferenceArray<Page> pages =
+            new AtomicReferenceArray<>(MAX_PAGES);
+    private Object[] stripes = new Object[STRIPES];
+    private LongLongMap[] locks = new LongLongMap[STRIPES];
+    private LongLongMap[] lockLeases = new LongLongMap[STRIPES];
+    private AtomicInteger highestID = new AtomicInteger(-1);
+    private Journal journal;
+
+    /**
+     * Empty ledger
+     */
+    Ledger() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+            locks[i] = new LongLongMap();
+            lockLeases[i] = new LongLongMap();
+        }
+    }
+
+    /**
+     * Starts writing every change to the journal
+     *
+     * @param journal Journal, already replayed into this ledger
+     */
+    void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Converts a dollar amount from the wire into cents
+     *
+     * @param dollars Amount of Money
+     * @return amount in cents
+     */
+    static long toCents(double dollars) {
+        return Math.round(dollars * 100);
+    }
+
+    /**
+     * Converts cents back into dollars for the wire
+     *
+     * @param cents Amount in cents
+     * @return Amount of Money
+     */
+    static double toDollars(long cents) {
+        return cents / 100.0;
+    }
+
+    /**
+     * Opens an account with a balance of zero
+     *
+     * @param id Account ID
+     * @return false if the ID is taken or negative
+     */
+    @Override
+    public boolean create(int id) {
+        if (id < 0) return false;
+
+        synchronized (stripes[id & STRIPE_MASK]) {
+            if (exists(id)) return false;
+
+            Page page = page(id, true);
+            int offset = id & PAGE_MASK;
+            page.balances.set(offset, 0);
+            page.lockedTotals.set(offset, 0);
+            page.lockSequence[offset] = 0;
+            page.lsn[offset] = 0;
+            markExists(id, page);
+
+            log(Journal.CREATE, id, 0, 0, 0);
+            return true;
+        }
+    }
+
+    /**
+     * @return highest account ID, -1 if there are none
+     */
+    int highestID() {
+        return highestID.get();
+    }
+
+    /**
+     * @param id Account ID
+     * @return whether the account exists
+     */
+    boolean exists(int id) {
+        if (id < 0) return false;
+
+        Page page = page(id, false);
+        int offset = id & PAGE_MASK;
+        return page != null &&
+                (page.exists.get(offset >>> 6) & (1L << offset)) != 0;
+    }
+
+    /**
+     * Reads the balance without locking
+     *
+     * @param id Account ID
+     * @return balance in cents, -1 if there is no such account
+     */
+    @Override
+    public long balance(int id) {
+        if (!exists(id)) return -1;
+        return page(id, false).balances.get(id & PAGE_MASK);
+    }
+
+    /**
+     * @param id Account ID
+     * @return balance plus every lock of the account in cents, -1 if there
+     * is no such account
+     */
+    @Override
+    public long totalBalance(int id) {
+        synchronized (stripes[id & STRIPE_MASK]) {
+            if (!exists(id)) return -1;
+
+            Page page = page(id, false);
+            int offset = id & PAGE_MASK;
+            return page.balances.get(offset) + page.lockedTotals.get(offset);
+        }
+    }
+
+    /**
+     * @param id Account ID
+     * @param cents Amount to add
+     * @return false if there is no such account
+     */
+    @Override
+    public boolean deposit(int id, long cents) {
+        synchronized (stripes[id & STRIPE_MASK]) {
+            if (!exists(id)) return false;
+
+            set(id, get(id) + cents);
+            log(Journal.DEPOSIT, id, 0, 0, cents);
+            return true;
+        }
+    }
+
+    /**
+     * @param id Account ID
+     * @param cents Amount to take out
+     * @return false if there is no such account or not enough money
+     */
+    @Override
+    public boolean withdraw(int id, long cents) {
+        synchronized (stripes[id & STRIPE_MASK]) {
+            if (!exists(id) || !withdrawHeld(id, cents)) return false;
+
+            log(Journal.WITHDRAW, id, 0, 0, cents);
+            return true;
+        }
+    }
+
+    /**
+     * Moves money out of the balance into a new lock
+     *
+     * @param id Account ID
+     * @param cents Amount to lock
+     * @return lock ID, -1 if there is no such account or not enough money
+     */
+    @Override
+    public int lock(int id, long cents) {
+        synchronized (stripes[id & STRIPE_MASK]) {
+            int lockID = exists(id) ? lockHeld(id, cents) : -1;
+            if (lockID != -1) log(Journal.LOCK, id, 0, lockID, cents);
+
+            return lockID;
+        }
+    }
+
+    /**
+     * Gives the money of a lock back to the balance
+     *
+     * @param id Account ID
+     * @param lockID Lock ID
+     * @return false if there is no such lock
+     */
+    @Override
+    public boolean unlock(int id, int lockID) {
+        synchronized (stripes[id & STRIPE_MASK]) {
+            if (!unlockHeld(id, lockID)) return false;
+
+            log(Journal.UNLOCK, id, 0, lockID, 0);
+            return true;
+        }
+    }
+
+    /**
+     * Changes the amount of a lock, only the difference has to be covered
+     *
+     * @param id Account ID
+     * @param lockID Lock ID
+     * @param cents New amount of the lock
+     * @return false if there is no such lock or not enough money
+     */
+    @Override
+    public boolean adjustLock(int id, int lockID, long cents) {
+        synchronized (stripes[id & STRIPE_MASK]) {
+            long key = lockKey(id, lockID);
+            LongLongMap map = locks[id & STRIPE_MASK];
+            long locked = map.get(key, NO_LOCK);
+            if (locked == NO_LOCK) return false;
+
+            long balance = get(id) - (cents - locked);
+            if (balance < 0) return false;
+
+            set(id, balance);
+            addLocked(id, cents - locked);
+            map.put(key, cents);
+            log(Journal.ADJUST, id, 0, lockID, cents);
+            return true;
+        }
+    }
+
+    /**
+     * Locks money in one account and unlocks a lock of another as one step
+     *
+     * @param fromID Account holding the old lock
+     * @param lockID Old lock ID
+     * @param toID Account to lock the money in
+     * @param cents Amount to lock
+     * @return new lock ID, -1 if nothing changed because the old lock is
+     *         gone or the new one couldn't be made
+     */
+    @Override
+    public int swapLock(int fromID, int lockID, int toID, long cents) {
+        if (!exists(fromID) || !exists(toID)) return -1;
+
+        int first = Math.min(fromID & STRIPE_MASK, toID & STRIPE_MASK);
+        int second = Math.max(fromID & STRIPE_MASK, toID & STRIPE_MASK);
+
+        synchronized (stripes[first]) {
+            synchronized (stripes[second]) {
+                // Checked first, a new lock can't be taken back without
+                // leaving a gap in the account's lock IDs on replay
+                long oldKey = lockKey(fromID, lockID);
+                if (!locks[fromID & STRIPE_MASK].containsKey(oldKey)) {
+                    return -1;
+                }
+
+                // Only let go of the old lock once the new one holds
+                int newLockID = lockHeld(toID, cents);
+                if (newLockID == -1) return -1;
+
+                // Replay makes the same new lock ID, only the old is kept
+                if (!unlockHeld(fromID, lockID)) {
+                    throw new IllegalStateException("Lock " + lockID +
+                            " of " + fromID + " vanished during a swap");
+                }
+                log(Journal.SWAP, fromID, toID, lockID, cents);
+                return newLockID;
+            }
+        }
+    }
+
+    /**
+     * Moves money between two balances
+     *
+     * @param fromID Account paying
+     * @param toID Account paid
+     * @param cents Amount to move
+     * @return false if an account is missing or there is not enough money
+     */
+    @Override
+    public boolean transfer(int fromID, int toID, long cents) {
+        if (!exists(fromID) || !exists(toID)) return false;
+
+        int first = Math.min(fromID & STRIPE_MASK, toID & STRIPE_MASK);
+        int second = Math.max(fromID & STRIPE_MASK, toID & STRIPE_MASK);
+
+        synchronized (stripes[first]) {
+            synchronized (stripes[second]) {
+                if (!withdrawHeld(fromID, cents)) return false;
+
+                set(toID, get(toID) + cents);
+                log(Journal.TRANSFER, fromID, toID, 0, cents);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Pays the money of a lock out to another account
+     *
+     * @param fromID Account holding the lock
+     * @param toID Account paid
+     * @param lockID Lock ID
+     * @return false if an account or the lock is missing
+     */
+    @Override
+    public boolean transferLock(int fromID, int toID, int lockID) {
+        if (!exists(fromID) || !exists(toID)) return false;
+
+        int first = Math.min(fromID & STRIPE_MASK, toID & STRIPE_MASK);
+        int second = Math.max(fromID & STRIPE_MASK, toID & STRIPE_MASK);
+
+        synchronized (stripes[first]) {
+            synchronized (stripes[second]) {
+                long cents = locks[fromID & STRIPE_MASK].remove(
+                        lockKey(fromID, lockID), NO_LOCK);
+                if (cents == NO_LOCK) return false;
+                lockLeases[fromID & STRIPE_MASK].remove(
+                        lockKey(fromID, lockID), 0);
+
+                addLocked(fromID, -cents);
+                set(toID, get(toID) + cents);
+                log(Journal.TRANSFERLOCK, fromID, toID, lockID, cents);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Hands a lock to a lease, or takes it out of any lease
+     *
+     * @param id Account ID
+     * @param lockID Lock ID
+     * @param lease Lease ID, 0 for none
+     * @return false if there is no such lock
+     */
+    public boolean setLease(int id, int lockID, int lease) {
+        synchronized (stripes[id & STRIPE_MASK]) {
+            long key = lockKey(id, lockID);
+            if (!locks[id & STRIPE_MASK].containsKey(key)) return false;
+
+            // Only a change of lease is journaled
+            if (lockLeases[id & STRIPE_MASK].get(key, 0) == lease) return true;
+
+            if (lease == 0) lockLeases[id & STRIPE_MASK].remove(key, 0);
+            else lockLeases[id & STRIPE_MASK].put(key, lease);
+            log(Journal.LEASE, id, 0, lockID, lease);
+            return true;
+        }
+    }
+
+    /**
+     * Hands every lock that's on a lease to the visitor, once the accounts
+     * are rebuilt and before connections are taken
+     *
+     * @param visitor Receives the lock's key, account ID high and lock ID
+     *                low, and its lease
+     */
+    void forEachLease(BiConsumer<Long, Integer> visitor) {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            synchronized (stripes[stripe]) {
+                LongLongMap map = lockLeases[stripe];
+                for (int slot = 0; slot < map.capacity(); slot++) {
+                    long key = map.keyAt(slot);
+                    if (key != 0) visitor.accept(key, (int) map.valueAt(slot));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param id Account ID
+     * @param lockID Lock ID
+     * @return lease the lock belongs to, 0 if none or no such lock
+     */
+    int leaseOf(int id, int lockID) {
+        synchronized (stripes[id & STRIPE_MASK]) {
+            return (int) lockLeases[id & STRIPE_MASK].get(
+                    lockKey(id, lockID), 0);
+        }
+    }
+
+    /**
+     * Gives the money of a lock back, only if it still belongs to the lease
+     *
+     * @param id Account ID
+     * @param lockID Lock ID
+     * @param lease Lease that expired
+     * @return false if the lock is gone or belongs to another lease
+     */
+    public boolean unlockLeased(int id, int lockID, int lease) {
+        synchronized (stripes[id & STRIPE_MASK]) {
+            if (lockLeases[id & STRIPE_MASK].get(lockKey(id, lockID), 0) !=
+                    lease) {
+                return false;
+            }
+            return unlock(id, lockID);
+        }
+    }
+
+    /**
+     * Replays one journal record, made before a journal is set so nothing
+     * is written back. Only runs before connections are taken, so the one
+     * sided changes below don't lock.
+     *
+     * @param lsn Log sequence number of the record
+     * @param op Record type
+     * @param account Account ID
+     * @param other Other account ID
+     * @param lockID Lock ID
+     * @param cents Amount
+     */
+    void apply(long lsn, int op, int account, int other, int lockID,
+               long cents) {
+        // Skip the side of a change the snapshot already has
+        boolean pair = Journal.touchesTwo(op);
+        boolean first = lsn > lsn(account);
+        boolean second = pair && lsn > lsn(other);
+        if (!first && !second) return;
+
+        switch (op) {
+            case Journal.CREATE: create(account); break;
+            case Journal.DEPOSIT: deposit(account, cents); break;
+            case Journal.WITHDRAW: withdraw(account, cents); break;
+            case Journal.LOCK: lock(account, cents); break;
+            case Journal.UNLOCK: unlock(account, lockID); break;
+            case Journal.ADJUST: adjustLock(account, lockID, cents); break;
+            case Journal.LEASE: setLease(account, lockID, (int) cents); break;
+            case Journal.SWAP:
+                if (first && second) swapLock(account, lockID, other, cents);
+                else if (second) lockHeld(other, cents);
+                else unlockHeld(account, lockID);
+                break;
+            case Journal.TRANSFER:
+                if (first && second) transfer(account, other, cents);
+                else if (second) set(other, get(other) + cents);
+                else withdrawHeld(account, cents);
+                break;
+            case Journal.TRANSFERLOCK:
+                if (first && second) transferLock(account, other, lockID);
+                else if (second) set(other, get(other) + cents);
+                else takeLockHeld(account, lockID);
+                break;
+        }
+
+        // Only the sides that were replayed move forward
+        if (first && exists(account)) {
+            page(account, false).lsn[account & PAGE_MASK] = lsn;
+        }
+        if (second) page(other, false).lsn[other & PAGE_MASK] = lsn;
+    }
+
+    /**
+     * Copies the accounts and locks of one stripe as snapshot records, with
+     * the stripe held so each account is copied as it was after one change
+     *
+     * @param stripe Stripe number
+     * @param accountOut Receives 32 byte account records
+     * @param lockOut Receives 20 byte lock records
+     * @throws IOException never, the streams are in memory
+     */
+    void copyStripe(int stripe, DataOutputStream accountOut,
+                    DataOutputStream lockOut) throws IOException {
+        synchronized (stripes[stripe]) {
+            for (int id = stripe; id >= 0 && id <= highestID.get();
+                 id += STRIPES) {
+                if (!exists(id)) continue;
+
+                Page page = page(id, false);
+                int offset = id & PAGE_MASK;
+                accountOut.writeInt(id);
+                accountOut.writeLong(page.balances.get(offset));
+                accountOut.writeLong(page.lockedTotals.get(offset));
+                accountOut.writeInt(page.lockSequence[offset]);
+                accountOut.writeLong(page.lsn[offset]);
+            }
+
+            LongLongMap map = locks[stripe];
+            for (int slot = 0; slot < map.capacity(); slot++) {
+                long key = map.keyAt(slot);
+                if (key == 0) continue;
+
+                lockOut.writeInt((int) (key >>> 32));
+                lockOut.writeInt((int) key);
+                lockOut.writeLong(map.valueAt(slot));
+                lockOut.writeInt((int) lockLeases[stripe].get(key, 0));
+            }
+        }
+    }
+
+    /**
+     * Puts back an account from a snapshot
+     *
+     * @param id Account ID
+     * @param balance Balance in cents
+     * @param lockedTotal Total of its locks in cents
+     * @param lockSequence Last lock ID handed out
+     * @param lsn Sequence number of the last record that changed it
+     */
+    void restoreAccount(int id, long balance, long lockedTotal,
+                        int lockSequence, long lsn) {
+        synchronized (stripes[id & STRIPE_MASK]) {
+            Page page = page(id, true);
+            int offset = id & PAGE_MASK;
+            page.balances.set(offset, balance);
+            page.lockedTotals.set(offset, lockedTotal);
+            page.lockSequence[offset] = lockSequence;
+            page.lsn[offset] = lsn;
+            markExists(id, page);
+        }
+    }
+
+    /**
+     * Puts back a lock from a snapshot, the account's total already has it
+     *
+     * @param id Account ID
+     * @param lockID Lock ID
+     * @param cents Amount locked
+     * @param lease Lease the lock is on, 0 for none
+     */
+    void restoreLock(int id, int lockID, long cents, int lease) {
+        synchronized (stripes[id & STRIPE_MASK]) {
+            locks[id & STRIPE_MASK].put(lockKey(id, lockID), cents);
+            if (lease != 0) {
+                lockLeases[id & STRIPE_MASK].put(lockKey(id, lockID), lease);
+            }
+        }
+    }
+
+    /**
+     * Appends a record if there is a journal, called with the stripes held
+     *
+     * @param op Record type
+     * @param account Account ID
+     * @param other Other account ID
+     * @param lockID Lock ID
+     * @param cents Amount
+     */
+    private void log(int op, int account, int other, int lockID, long cents) {
+        if (journal == null) return;
+
+        long lsn = journal.append(op, account, other, lockID, cents);
+        page(account, false).lsn[account & PAGE_MASK] = lsn;
+        if (Journal.touchesTwo(op)) {
+            page(other, false).lsn[other & PAGE_MASK] = lsn;
+        }
+    }
+
+    /**
+     * @param id Account ID
+     * @return sequence number of the last record that changed the account,
+     * 0 if there is no such account
+     */
+    private long lsn(int id) {
+        return exists(id) ? page(id, false).lsn[id & PAGE_MASK] : 0;
+    }
+
+    /**
+     * Sets the existence bit of an account
+     *
+     * @param id Account ID
+     * @param page Page of the account
+     */
+    private void markExists(int id, Page page) {
+        // Other stripes share the word, so set the bit with a CAS
+        int offset = id & PAGE_MASK;
+        int word = offset >>> 6;
+        long bit = 1L << offset;
+        long old;
+        do {
+            old = page.exists.get(word);
+        } while (!page.exists.compareAndSet(word, old, old | bit));
+
+        highestID.accumulateAndGet(id, Math::max);
+    }
+
+    /**
+     * Removes a lock without giving its money back, called with the
+     * account's stripe held
+     *
+     * @param id Account ID
+     * @param lockID Lock ID
+     */
+    private void takeLockHeld(int id, int lockID) {
+        long cents = locks[id & STRIPE_MASK].remove(lockKey(id, lockID),
+                NO_LOCK);
+        if (cents != NO_LOCK) addLocked(id, -cents);
+        lockLeases[id & STRIPE_MASK].remove(lockKey(id, lockID), 0);
+    }
+
+    /**
+     * Takes money out of the balance, called with the account's stripe held
+     *
+     * @param id Account ID
+     * @param cents Amount to take out
+     * @return false if there is not enough money
+     */
+    private boolean withdrawHeld(int id, long cents) {
+        long balance = get(id);
+        if (balance < cents) return false;
+
+        set(id, balance - cents);
+        return true;
+    }
+
+    /**
+     * Makes a lock, called with the account's stripe held
+     *
+     * @param id Account ID
+     * @param cents Amount to lock
+     * @return lock ID, -1 if there is not enough money
+     */
+    private int lockHeld(int id, long cents) {
+        long balance = get(id);
+        if (balance - cents < 0) return -1;
+
+        // Lock IDs count up from 1, so a key is never zero. Only after the
+        // count wraps can an ID still be taken.
+        Page page = page(id, false);
+        int offset = id & PAGE_MASK;
+        LongLongMap map = locks[id & STRIPE_MASK];
+        int lockID = page.lockSequence[offset];
+        do {
+            lockID = lockID == Integer.MAX_VALUE ? 1 : lockID + 1;
+        } while (map.containsKey(lockKey(id, lockID)));
+        page.lockSequence[offset] = lockID;
+
+        set(id, balance - cents);
+        addLocked(id, cents);
+        map.put(lockKey(id, lockID), cents);
+        return lockID;
+    }
+
+    /**
+     * Releases a lock, called with the account's stripe held
+     *
+     * @param id Account ID
+     * @param lockID Lock ID
+     * @return false if there is no such lock
+     */
+    private boolean unlockHeld(int id, int lockID) {
+        long cents = locks[id & STRIPE_MASK].remove(lockKey(id, lockID),
+                NO_LOCK);
+        if (cents == NO_LOCK) return false;
+        lockLeases[id & STRIPE_MASK].remove(lockKey(id, lockID), 0);
+
+        set(id, get(id) + cents);
+        addLocked(id, -cents);
+        return true;
+    }
+
+    /**
+     * @param id Account ID
+     * @param lockID Lock ID
+     * @return key of the lock in its lock map
+     */
+    private static long lockKey(int id, int lockID) {
+        return ((long) id << 32) | (lockID & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param id Existing account ID
+     * @return balance in cents
+     */
+    private long get(int id) {
+        return page(id, false).balances.get(id & PAGE_MASK);
+    }
+
+    /**
+     * @param id Existing account ID
+     * @param cents New balance in cents
+     */
+    private void set(int id, long cents) {
+        page(id, false).balances.set(id & PAGE_MASK, cents);
+    }
+
+    /**
+     * Changes the running total of an account's locks
+     *
+     * @param id Existing account ID
+     * @param cents Amount to add, negative to take off
+     */
+    private void addLocked(int id, long cents) {
+        AtomicLongArray totals = page(id, false).lockedTotals;
+        int offset = id & PAGE_MASK;
+        totals.set(offset, totals.get(offset) + cents);
+    }
+
+    /**
+     * Finds the page of an account
+     *
+     * @param id Account ID
+     * @param create Whether to make the page if it's missing
+     * @return page, null if it's missing and create is false
+     */
+    private Page page(int id, boolean create) {
+        int index = id >>> PAGE_BITS;
+        Page page = pages.get(index);
+
+        if (page == null && create) {
+            pages.compareAndSet(index, null, new Page());
+            page = pages.get(index);
+        }
+        return page;
+    }
+
+    /**
+     * Columns of PAGE_SIZE accounts
+     */
+    private static class Page {
+
+        private final AtomicLongArray balances =
+                new AtomicLongArray(PAGE_SIZE);
+        private final AtomicLongArray lockedTotals =
+                new AtomicLongArray(PAGE_SIZE);
+
+        // Last lock ID handed out, and sequence number of the last journal
+        // record, only touched with the stripe held
+        private final int[] lockSequence = new int[PAGE_SIZE];
+        private final long[] lsn = new long[PAGE_SIZE];
+        private final AtomicLongArray exists =
+                new AtomicLongArray(PAGE_SIZE / 64);
+    }
+}
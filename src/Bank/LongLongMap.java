@@ -0,0 +1,168 @@
+package Bank;
+
+/**
+ * Open addressing hash map from long to long, with no boxing and no
+ * allocation outside of growing. Zero can't be used as a key.
+ *
+ * Not thread safe, the Ledger guards each map with a lock of its own.
+ */
+class LongLongMap {
+
+    private static final long EMPTY = 0;
+    private static final int MIN_CAPACITY = 8;
+
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int size = 0;
+
+    /**
+     * Empty map
+     */
+    LongLongMap() {
+        keys = new long[MIN_CAPACITY];
+        values = new long[MIN_CAPACITY];
+        mask = MIN_CAPACITY - 1;
+    }
+
+    /**
+     * @param key Key to look up
+     * @return whether the key is in the map
+     */
+    boolean containsKey(long key) {
+        return keys[indexOf(key)] != EMPTY;
+    }
+
+    /**
+     * @param key Key to look up
+     * @param missing Value to return when the key isn't in the map
+     * @return value of the key
+     */
+    long get(long key, long missing) {
+        int index = indexOf(key);
+        return keys[index] == EMPTY ? missing : values[index];
+    }
+
+    /**
+     * Puts a value in the map, replacing any old one
+     *
+     * @param key Key, not zero
+     * @param value Value
+     */
+    void put(long key, long value) {
+        int index = indexOf(key);
+        if (keys[index] == EMPTY) {
+            keys[index] = key;
+            size++;
+        }
+        values[index] = value;
+
+        // Keep the table at most half full
+        if (size * 2 > keys.length) grow();
+    }
+
+    /**
+     * Removes a key
+     *
+     * @param key Key to remove
+     * @param missing Value to return when the key isn't in the map
+     * @return the value it had
+     */
+    long remove(long key, long missing) {
+        int index = indexOf(key);
+        if (keys[index] == EMPTY) return missing;
+
+        long value = values[index];
+        keys[index] = EMPTY;
+        size--;
+
+        // Shift later entries of the probe run back into the hole
+        int hole = index;
+        int next = (index + 1) & mask;
+        while (keys[next] != EMPTY) {
+            int home = hash(keys[next]);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                keys[next] = EMPTY;
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+
+        return value;
+    }
+
+    /**
+     * @return number of keys
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return number of slots, for walking the map with keyAt and valueAt
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * @param slot Slot index
+     * @return key in the slot, zero if empty
+     */
+    long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * @param slot Slot index
+     * @return value in the slot
+     */
+    long valueAt(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * Finds the slot holding the key, or the empty slot it would go in
+     *
+     * @param key Key to find
+     * @return slot index
+     */
+    private int indexOf(long key) {
+        int index = hash(key);
+        while (keys[index] != EMPTY && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    /**
+     * @param key Key to hash
+     * @return home slot of the key
+     */
+    private int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Doubles the table and puts every key back
+     */
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+
+        keys = new long[oldKeys.length * 2];
+        values = new long[oldKeys.length * 2];
+        mask = keys.length - 1;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int index = indexOf(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package Bank;
+
+import Concurrency.ThreadRunner;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes snapshots of the Ledger in the background and loads the latest one
+ * on startup, so only the journal after it has to be replayed.
+ *
+ * A snapshot is copied one stripe at a time while requests keep running.
+ * Each account carries the sequence number of the last journal record in
+ * it, so replaying from where the snapshot started skips what it already
+ * has. The journal is committed after the copy, so nothing the copy saw
+ * can be lost in a crash, and once a snapshot is written the older ones and
+ * the journal segments before it are deleted.
+ *
+ * File layout: a header, then fixed size account records, then fixed size
+ * lock records with the lease each lock is on, so loading can split both
+ * sections over several threads.
+ */
+class Snapshots implements Runnable {
+
+    private static final int MAGIC = 0x534e4150;
+    private static final int HEADER_BYTES = 32;
+    private static final int ACCOUNT_BYTES = 32;
+    private static final int LOCK_BYTES = 20;
+
+    // Snapshots before leases were kept have shorter lock records
+    private static final int VERSION = 2;
+    private static final int OLD_LOCK_BYTES = 16;
+
+    private File directory;
+    private Ledger ledger;
+    private Journal journal;
+    private long interval;
+    private long lastStart = -1;
+    private AtomicLong highestLsn = new AtomicLong();
+
+    /**
+     * Snapshots of the ledger in the given directory
+     *
+     * @param directory Directory holding the snapshots and the journal
+     * @param ledger Ledger to snapshot
+     * @param journal Journal the snapshots cut
+     * @param interval Milliseconds between snapshots
+     */
+    Snapshots(File directory, Ledger ledger, Journal journal, long interval) {
+        this.directory = directory;
+        this.ledger = ledger;
+        this.journal = journal;
+        this.interval = interval;
+    }
+
+    /**
+     * Loads the latest snapshot into the ledger, parsing it on several
+     * threads
+     *
+     * @return index of the first journal record it doesn't cover, 0 if
+     * there is no snapshot
+     * @throws IOException if the snapshot can't be read
+     */
+    long load() throws IOException {
+        File file = latest();
+        if (file == null) return 0;
+
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    raf.length());
+        }
+
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a snapshot: " + file);
+        }
+        long start = buffer.getLong(8);
+        long accounts = buffer.getLong(16);
+        long locks = buffer.getLong(24);
+        long lockOffset = HEADER_BYTES + accounts * ACCOUNT_BYTES;
+        boolean leased = buffer.getInt(4) >= VERSION;
+        int lockBytes = leased ? LOCK_BYTES : OLD_LOCK_BYTES;
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = ThreadRunner.newPool(threads);
+        ArrayList<Future<?>> parts = new ArrayList<>();
+
+        // Accounts first, each lock is put in after its account exists
+        for (int part = 0; part < threads; part++) {
+            long from = accounts * part / threads;
+            long to = accounts * (part + 1) / threads;
+            ByteBuffer view = buffer.duplicate();
+            parts.add(pool.submit(() -> {
+                long highest = 0;
+                for (long i = from; i < to; i++) {
+                    int at = (int) (HEADER_BYTES + i * ACCOUNT_BYTES);
+                    long lsn = view.getLong(at + 24);
+                    ledger.restoreAccount(view.getInt(at),
+                            view.getLong(at + 4), view.getLong(at + 12),
+                            view.getInt(at + 20), lsn);
+                    highest = Math.max(highest, lsn);
+                }
+                highestLsn.accumulateAndGet(highest, Math::max);
+            }));
+        }
+        await(parts);
+
+        for (int part = 0; part < threads; part++) {
+            long from = locks * part / threads;
+            long to = locks * (part + 1) / threads;
+            ByteBuffer view = buffer.duplicate();
+            parts.add(pool.submit(() -> {
+                for (long i = from; i < to; i++) {
+                    int at = (int) (lockOffset + i * lockBytes);
+                    ledger.restoreLock(view.getInt(at), view.getInt(at + 4),
+                            view.getLong(at + 8),
+                            leased ? view.getInt(at + 16) : 0);
+                }
+            }));
+        }
+        await(parts);
+        pool.shutdown();
+
+        System.out.println("Loaded snapshot " + file.getName() + " with " +
+                accounts + " accounts and " + locks + " locks");
+        lastStart = start;
+        return start;
+    }
+
+    /**
+     * @return highest log sequence number of an account in the loaded
+     * snapshot, 0 if none was loaded
+     */
+    long highestLsn() {
+        return highestLsn.get();
+    }
+
+    /**
+     * Takes a snapshot every interval, for as long as the Bank runs
+     */
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                Thread.sleep(interval);
+                write();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot, unless nothing changed since the last one, and
+     * deletes what it makes redundant
+     *
+     * @throws IOException if the snapshot can't be written
+     */
+    void write() throws IOException {
+        // Anything from here on may or may not make it into the copy
+        long start = journal.records();
+        if (start == lastStart) return;
+
+        File file = new File(directory, name(start));
+        File temp = new File(directory, name(start) + ".tmp");
+        File lockTemp = new File(directory, name(start) + ".locks.tmp");
+
+        ByteArrayOutputStream accountBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream lockBytes = new ByteArrayOutputStream();
+        DataOutputStream accountOut = new DataOutputStream(accountBytes);
+        DataOutputStream lockOut = new DataOutputStream(lockBytes);
+        long accounts = 0;
+        long locks = 0;
+
+        try (FileChannel out = new RandomAccessFile(temp, "rw").getChannel();
+             FileOutputStream lockFile = new FileOutputStream(lockTemp)) {
+            out.position(HEADER_BYTES);
+
+            // Copy a stripe in memory, write it with the stripe let go
+            for (int stripe = 0; stripe < Ledger.STRIPES; stripe++) {
+                ledger.copyStripe(stripe, accountOut, lockOut);
+
+                accounts += accountBytes.size() / ACCOUNT_BYTES;
+                locks += lockBytes.size() / LOCK_BYTES;
+                out.write(ByteBuffer.wrap(accountBytes.toByteArray()));
+                lockBytes.writeTo(lockFile);
+                accountBytes.reset();
+                lockBytes.reset();
+            }
+
+            // The copy may have changes not on disk yet, they have to be
+            // before the journal under them is deleted
+            journal.commit();
+
+            // Locks go after the accounts
+            lockFile.flush();
+            try (FileChannel in =
+                         new RandomAccessFile(lockTemp, "r").getChannel()) {
+                long copied = 0;
+                while (copied < in.size()) {
+                    copied += in.transferTo(copied, in.size() - copied, out);
+                }
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putLong(start)
+                    .putLong(accounts).putLong(locks).flip();
+            out.write(header, 0);
+            out.force(true);
+        } finally {
+            lockTemp.delete();
+        }
+
+        if (!temp.renameTo(file)) {
+            throw new IOException("Couldn't rename " + temp);
+        }
+        lastStart = start;
+
+        // The rename has to be on disk before what it replaces is deleted
+        Journal.syncDirectory(directory);
+
+        // Older snapshots and the journal before this one aren't needed
+        File[] old = directory.listFiles((dir, n) ->
+                n.startsWith("snapshot-") && n.endsWith(".snap") &&
+                        !n.equals(file.getName()));
+        if (old != null) for (File f : old) f.delete();
+        journal.discardBefore(start);
+
+        System.out.println("Wrote snapshot " + file.getName() + " with " +
+                accounts + " accounts and " + locks + " locks");
+    }
+
+    /**
+     * @return latest snapshot file, null if there is none
+     */
+    private File latest() {
+        File[] files = directory.listFiles((dir, n) ->
+                n.startsWith("snapshot-") && n.endsWith(".snap"));
+        if (files == null) return null;
+
+        File latest = null;
+        for (File f : files) {
+            if (latest == null || f.getName().compareTo(latest.getName()) > 0) {
+                latest = f;
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * @param start First journal record the snapshot doesn't cover
+     * @return file name of the snapshot, sorting in order of start
+     */
+    private static String name(long start) {
+        return String.format("snapshot-%016d.snap", start);
+    }
+
+    /**
+     * Waits for every part of a load
+     *
+     * @param parts Parts to wait for, cleared after
+     * @throws IOException if a part failed
+     */
+    private static void await(ArrayList<Future<?>> parts) throws IOException {
+        try {
+            for (Future<?> part : parts) part.get();
+        } catch (Exception e) {
+            throw new IOException("Snapshot load failed", e);
+        } finally {
+            parts.clear();
+        }
+    }
+}
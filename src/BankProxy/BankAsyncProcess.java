@@ -0,0 +1,143 @@
+package BankProxy;
+
+import Network.NetworkDevice;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Asynchronous version of BankProcess. Each call sends its request right
+ * away and returns a future completed when the response arrives, so many
+ * calls can be in flight over one connection.
+ *
+ * The futures complete exceptionally if the connection is lost.
+ */
+public interface BankAsyncProcess {
+
+    /**
+     * Makes an account for auction house or agent
+     *
+     * @param ID Requested ID
+     * @return Account ID
+     */
+    CompletableFuture<Integer> addAccountAsync(int ID);
+
+    /**
+     * Get the balance of the Account number
+     *
+     * @param AccountID Unique Identifier of Account
+     * @return Amount of money
+     */
+    CompletableFuture<Double> getBalanceAsync(int AccountID);
+
+    /**
+     * Gets the total balance, including the locked amount
+     *
+     * @param AccountID Unique Identifier of Account
+     * @return Amount of money
+     */
+    CompletableFuture<Double> getTotalBalanceAsync(int AccountID);
+
+    /**
+     * Add the funds to the specified account number
+     *
+     * @param AccountID Unique Identifier of Account
+     * @param amount Amount of Money
+     * @return status
+     */
+    CompletableFuture<Boolean> addFundsAsync(int AccountID, double amount);
+
+    /**
+     * Removes the funds from the given account
+     *
+     * @param AccountID Unique Identifier of Account
+     * @param amount Amount of Money
+     * @return status
+     */
+    CompletableFuture<Boolean> removeFundsAsync(int AccountID, double amount);
+
+    /**
+     * Locks a certain amount of money away for potential use
+     *
+     * @param AccountID Unique Identifier of Account
+     * @param amount Amount of Money
+     * @return Identifier of the lock, -1 if it couldn't be locked
+     */
+    CompletableFuture<Integer> lockFundsAsync(int AccountID, double amount);
+
+    /**
+     * Unlocks the lock given by the identifier!
+     *
+     * @param AccountID Unique Identifier of Account
+     * @param lockID Identifier of the lock
+     * @return status
+     */
+    CompletableFuture<Boolean> unlockFundsAsync(int AccountID, int lockID);
+
+    /**
+     * Changes the amount held by an existing lock
+     *
+     * @param AccountID Unique Identifier of Account
+     * @param lockID Identifier of the lock
+     * @param amount New amount of the lock
+     * @return status
+     */
+    CompletableFuture<Boolean> adjustLockAsync(int AccountID, int lockID,
+                                               double amount);
+
+    /**
+     * Locks funds in one account and unlocks a lock in another as one step
+     *
+     * @param fromID Account holding the old lock
+     * @param lockID Identifier of the old lock
+     * @param toID Account to lock the funds in
+     * @param amount Amount of Money
+     * @return Identifier of the new lock, -1 if it couldn't be locked
+     */
+    CompletableFuture<Integer> swapLockAsync(int fromID, int lockID, int toID,
+                                             double amount);
+
+    /**
+     * Transfer funds of amount specified from ID1 to ID2
+     *
+     * @param fromID Unique Identifier of Account1
+     * @param toID Unique Identifier of Account2
+     * @param amount Amount of Money
+     * @return status
+     */
+    CompletableFuture<Boolean> transferFundsAsync(int fromID, int toID,
+                                                  double amount);
+
+    /**
+     * Transfer funds based on the lock within the account tied to the fromID
+     *
+     * @param fromID Unique Identifier of Account1
+     * @param toID Unique Identifier of Account2
+     * @param lockID Lock identifier
+     * @return status
+     */
+    CompletableFuture<Boolean> transferFundsAsync(int fromID, int toID,
+                                                  int lockID);
+
+    /**
+     * Add new AuctionHouse server to Bank logs
+     *
+     * @param networkDevice Networked device to open for use
+     * @return status
+     */
+    CompletableFuture<Boolean> openServerAsync(NetworkDevice networkDevice);
+
+    /**
+     * Close an AuctionHouse server to Bank logs
+     *
+     * @param networkDevice Networked device to close
+     * @return status of closure
+     */
+    CompletableFuture<Boolean> closeServerAsync(NetworkDevice networkDevice);
+
+    /**
+     * Get the servers currently listed within the Bank's systems
+     *
+     * @return List of servers
+     */
+    CompletableFuture<LinkedBlockingQueue<NetworkDevice>> getServersAsync();
+}
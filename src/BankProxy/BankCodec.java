@@ -0,0 +1,131 @@
+package BankProxy;
+
+import Network.NetworkDevice;
+import Network.PacketCodec;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Binary codec for BankRequest
+ *
+ * After the packet header a bit mask says which fields follow, so unused
+ * fields cost nothing on the wire. The operations of a BATCH are written
+ * as whole requests one after another, and a batch can't hold another
+ * batch.
+ */
+public class BankCodec extends PacketCodec<BankRequest> {
+
+    // Field bits
+    private static final int ID = 1;
+    private static final int TO_ID = 2;
+    private static final int AMOUNT = 4;
+    private static final int LOCK = 8;
+    private static final int DEVICES = 16;
+    private static final int OPERATIONS = 32;
+    private static final int LEASE = 64;
+
+    private static final BankInfo[] TYPES = BankInfo.values();
+
+    /**
+     * Writes the body of the request
+     *
+     * @param br Request to write
+     * @param out Output to write to
+     * @throws IOException if writing fails
+     */
+    @Override
+    protected void write(BankRequest br, DataOutputStream out)
+            throws IOException {
+        writeHeader(br, br.getType().ordinal(), out);
+
+        // Work out which fields are present
+        int mask = 0;
+        if (br.getID() != 0) mask |= ID;
+        if (br.getToID() != 0) mask |= TO_ID;
+        if (br.getAmount() != 0) mask |= AMOUNT;
+        if (br.getLockNumber() != 0) mask |= LOCK;
+        if (br.getNetworkDevices() != null) mask |= DEVICES;
+        if (br.getOperations() != null) mask |= OPERATIONS;
+        if (br.getLease() != 0) mask |= LEASE;
+        out.writeByte(mask);
+
+        if ((mask & ID) != 0) out.writeInt(br.getID());
+        if ((mask & TO_ID) != 0) out.writeInt(br.getToID());
+        if ((mask & AMOUNT) != 0) out.writeDouble(br.getAmount());
+        if ((mask & LOCK) != 0) out.writeInt(br.getLockNumber());
+        if ((mask & DEVICES) != 0) {
+            out.writeShort(br.getNetworkDevices().size());
+            for (NetworkDevice nd : br.getNetworkDevices()) {
+                out.writeUTF(nd.getIpAddress());
+                out.writeShort(nd.getPort());
+            }
+        }
+        if ((mask & OPERATIONS) != 0) {
+            out.writeShort(br.getOperations().size());
+            for (BankRequest operation : br.getOperations()) {
+                write(operation, out);
+            }
+        }
+        if ((mask & LEASE) != 0) out.writeInt(br.getLease());
+    }
+
+    /**
+     * Reads the body of a request
+     *
+     * @param in Input holding the body
+     * @return Request read
+     * @throws IOException if the body is malformed
+     */
+    @Override
+    protected BankRequest read(DataInputStream in) throws IOException {
+        return read(in, false);
+    }
+
+    /**
+     * Reads a request or one operation of a batch
+     *
+     * @param in Input holding the body
+     * @param inBatch Whether this is an operation of a batch
+     * @return Request read
+     * @throws IOException if the body is malformed or nests a batch
+     */
+    private BankRequest read(DataInputStream in, boolean inBatch)
+            throws IOException {
+        int type = in.readUnsignedByte();
+        if (type >= TYPES.length) throw new IOException("Bad type " + type);
+        if (inBatch && TYPES[type] == BankInfo.BATCH) {
+            throw new IOException("Batch inside a batch");
+        }
+
+        BankRequest br = new BankRequest(TYPES[type], in.readInt());
+        applyFlags(br, in.readUnsignedByte());
+
+        int mask = in.readUnsignedByte();
+        if ((mask & ID) != 0) br.setID(in.readInt());
+        if ((mask & TO_ID) != 0) br.setToID(in.readInt());
+        if ((mask & AMOUNT) != 0) br.setAmount(in.readDouble());
+        if ((mask & LOCK) != 0) br.setLockNumber(in.readInt());
+        if ((mask & DEVICES) != 0) {
+            int count = in.readUnsignedShort();
+            LinkedBlockingQueue<NetworkDevice> devices =
+                    new LinkedBlockingQueue<>();
+            for (int i = 0; i < count; i++) {
+                devices.add(new NetworkDevice(in.readUTF(),
+                        in.readUnsignedShort()));
+            }
+            br.setNetworkDevices(devices);
+        }
+        if ((mask & OPERATIONS) != 0) {
+            // Only one level deep, so a crafted packet can't recurse
+            if (inBatch) throw new IOException("Batch inside a batch");
+
+            int count = in.readUnsignedShort();
+            for (int i = 0; i < count; i++) br.addOperation(read(in, true));
+        }
+        if ((mask & LEASE) != 0) br.setLease(in.readInt());
+
+        return br;
+    }
+}
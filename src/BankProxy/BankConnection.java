@@ -0,0 +1,168 @@
+package BankProxy;
+
+import Concurrency.ThreadRunner;
+import Network.PacketStream;
+import Network.PendingRequests;
+import Network.WireFormat;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * One connection of a BankProxy to the Bank, with its own correlation
+ * table and reader thread.
+ *
+ * A connection that broke can be connected again, requests that were
+ * waiting on it fail when it breaks.
+ */
+class BankConnection implements Runnable {
+
+    private String hostname;
+    private int port;
+    private WireFormat format;
+    private Consumer<BankRequest> notifications;
+
+    private PendingRequests<BankRequest> pending = new PendingRequests<>();
+    private volatile Socket s;
+    private volatile PacketStream<BankRequest> stream;
+    private volatile boolean open;
+
+    // When a response last came in, or the connection last got busy, in
+    // System.nanoTime
+    private volatile long lastHeard;
+
+    /**
+     * Connection that is not connected yet
+     *
+     * @param hostname Hostname or IP of the Bank
+     * @param port Port of the Bank
+     * @param format Wire format of the connection
+     * @param notifications Gets the notifications sent on this connection,
+     *                      null to ignore them
+     */
+    BankConnection(String hostname, int port, WireFormat format,
+                   Consumer<BankRequest> notifications) {
+        this.hostname = hostname;
+        this.port = port;
+        this.format = format;
+        this.notifications = notifications;
+    }
+
+    /**
+     * Tries once to connect, and starts reading if it did
+     *
+     * @return whether it's connected
+     */
+    synchronized boolean connect() {
+        if (open) return true;
+
+        try {
+            Socket socket = new Socket(hostname, port);
+            stream = PacketStream.connect(socket, new BankCodec(), format);
+            s = socket;
+        } catch (IOException e) {
+            return false;
+        }
+
+        lastHeard = System.nanoTime();
+        open = true;
+        ThreadRunner.start(this);
+        return true;
+    }
+
+    /**
+     * Registers the request in the correlation table and writes it out
+     *
+     * @param request Request to send
+     * @return future completed with the response
+     */
+    CompletableFuture<BankRequest> send(BankRequest request) {
+        // Time spent waiting only counts from when it got busy
+        if (pending.size() == 0) lastHeard = System.nanoTime();
+
+        CompletableFuture<BankRequest> future = pending.register(request);
+
+        if (!open) {
+            pending.fail(request.getPacketID(),
+                    new IOException("Bank connection is closed"));
+            return future;
+        }
+
+        try {
+            stream.write(request);
+        } catch (IOException e) {
+            pending.fail(request.getPacketID(), e);
+        }
+        return future;
+    }
+
+    /**
+     * Closes the socket, the reader then fails whatever was waiting
+     */
+    void close() {
+        Socket socket = s;
+        if (socket == null) return;
+
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return whether the connection is up
+     */
+    boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * @return number of requests waiting for a response
+     */
+    int outstanding() {
+        return pending.size();
+    }
+
+    /**
+     * @return nanoseconds since a response came in or it got busy
+     */
+    long silentFor() {
+        return System.nanoTime() - lastHeard;
+    }
+
+    /**
+     * Reads responses and completes the request each one belongs to.
+     * Notifications are handed on right away.
+     *
+     * @see Thread#run()
+     */
+    @Override
+    public void run() {
+        PacketStream<BankRequest> in = stream;
+
+        while (open) {
+
+            // Attempt to read and parse incoming messages
+            BankRequest response;
+            try {
+                response = in.read();
+            } catch (IOException | ClassNotFoundException e) {
+                System.out.println("Lost a connection to the bank: " + e);
+                open = false;
+                pending.failAll(e);
+                close();
+                return;
+            }
+            lastHeard = System.nanoTime();
+
+            // Process the messages
+            if (response.getAck()) {
+                pending.complete(response);
+            } else if (notifications != null) {
+                notifications.accept(response);
+            }
+        }
+    }
+}
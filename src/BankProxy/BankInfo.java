@@ -7,5 +7,6 @@ package BankProxy;
  */
 public enum BankInfo {
     GETBALANCE,GETTOTALBALANCE,ADD,REMOVE,LOCK,UNLOCK,TRANSFER,TRANSFERFROMLOCK,
-    NEWACCOUNT,OPENAUCTION,CLOSEAUCTION,GETAUCTIONS;
+    NEWACCOUNT,OPENAUCTION,CLOSEAUCTION,GETAUCTIONS,ADJUSTLOCK,SWAPLOCK,BATCH,
+    RENEWLEASE;
 }
@@ -12,7 +12,7 @@ public interface BankProcess {
     /**
      * Makes an account for auction house or agent
      *
-     * @return Account ID
+     * @return Account ID, -1 if the account couldn't be made
      */
     int addAccount(int ID);
 
@@ -20,7 +20,7 @@ public interface BankProcess {
      * Get the balance of the Account number
      *
      * @param AccountID Unique Identifier of Account
-     * @return Amount of money
+     * @return Amount of money, NaN if it couldn't be read
      */
     double getBalance(int AccountID);
 
@@ -28,7 +28,7 @@ public interface BankProcess {
      * Gets the total balance, including the locked amount
      *
      * @param AccountID Unique Identifier of Account
-     * @return Amount of money
+     * @return Amount of money, NaN if it couldn't be read
      */
     double getTotalBalance(int AccountID);
 
@@ -66,6 +66,28 @@ public interface BankProcess {
      */
     boolean unlockFunds(int AccountID, int lockID);
 
+    /**
+     * Changes the amount held by an existing lock, the lock keeps its ID
+     *
+     * @param AccountID Unique Identifier of Account
+     * @param lockID Identifier of the lock
+     * @param amount New amount of the lock
+     * @return false if the lock is gone or the balance can't cover it
+     */
+    boolean adjustLock(int AccountID, int lockID, double amount);
+
+    /**
+     * Locks funds in one account and unlocks a lock in another as one step.
+     * Nothing changes if the old lock is gone or the new lock can't be made.
+     *
+     * @param fromID Account holding the old lock
+     * @param lockID Identifier of the old lock
+     * @param toID Account to lock the funds in
+     * @param amount Amount of Money
+     * @return Identifier of the new lock, -1 if it couldn't be locked
+     */
+    int swapLock(int fromID, int lockID, int toID, double amount);
+
     /**
      * Transfer funds of amount specified from ID1 to ID2
      *
@@ -1,28 +1,75 @@
 package BankProxy;
 
 import Agent.Agent;
+import Concurrency.ThreadRunner;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import Network.NetworkDevice;
+import Network.PacketStream;
+import Network.WireFormat;
 
 
 /**
  * Proxy design for the Bank
+ *
+ * Requests are pipelined over one connection, or over a pool of them. Each
+ * one gets its own future in its connection's correlation table, completed
+ * by that connection's reader thread, and the blocking BankProcess methods
+ * just wait on that future.
+ *
+ * With a pool every request goes to the open connection with the fewest
+ * requests waiting. A health check connects broken connections again, and
+ * closes one that had requests waiting and heard nothing for too long.
+ *
+ * Locks are made on a lease of this proxy, renewed by the health check, so
+ * the Bank lets them go if the proxy dies. If a renewal finds the Bank
+ * doesn't know the lease any more, the owner is told so it can put its
+ * locks back on it.
+ *
+ * With batching on, account operations are held back for a short window
+ * and sent together as one BATCH request. A sender thread sends whatever
+ * gathered once the window passes or the batch is full, and while it's
+ * sending the next batch gathers, so with a window of zero operations are
+ * only held back while the one before them is being written.
  */
-public class BankProxy implements BankProcess, Runnable {
-
-    private ConcurrentHashMap<Integer, BankRequest> messages =
-            new ConcurrentHashMap<Integer, BankRequest>();
-    private Socket s = null;
-    private ObjectInputStream is;
-    private ObjectOutputStream os;
-    private boolean open;
+public class BankProxy implements BankProcess, BankAsyncProcess, Runnable {
+
+    // How often connections are checked, and how long one with requests
+    // waiting may go without a response
+    private static final long HEALTH_INTERVAL = 1000;
+    private static final long STALL_TIMEOUT = 5000;
+
+    // How often the lease on this proxy's locks is renewed, well within the
+    // Bank's lease time
+    private static final long LEASE_RENEW_INTERVAL = 10000;
+
+    private BankConnection[] connections;
+    private AtomicInteger nextConnection = new AtomicInteger();
     private Agent client;
 
+    // Every lock this proxy makes goes on this lease, renewed once it has
+    // any
+    private final int leaseID =
+            1 + (int) (Math.random() * (Integer.MAX_VALUE - 1));
+    private volatile boolean leased;
+    private volatile Runnable leaseLostHandler;
+
+    // Batching, off until setBatching is called
+    private volatile long batchWindow = -1;
+    private volatile int batchSize;
+    private ArrayList<Queued> queued = new ArrayList<>();
+    private ReentrantLock batchLock = new ReentrantLock();
+    private Condition batchReady = batchLock.newCondition();
+    private boolean flushRequested;
+
     /**
      * Proxy design for the BankProxy. Creates a socket from the\
      * passed parameters
@@ -32,12 +79,50 @@ public class BankProxy implements BankProcess, Runnable {
      * @param client Agent client
      */
     public BankProxy(String hostname, int port, Agent client) {
+        this(hostname, port, client, PacketStream.defaultFormat);
+    }
+
+    /**
+     * Proxy design for the BankProxy. Creates a socket from the
+     * passed parameters using the given wire format
+     *
+     * @param hostname Hostname or IP
+     * @param port Port number
+     * @param client Agent client
+     * @param format Wire format of the connection
+     */
+    public BankProxy(String hostname, int port, Agent client,
+                     WireFormat format) {
+        this(hostname, port, client, format, 1);
+    }
+
+    /**
+     * Proxy design for the BankProxy. Opens a pool of connections to the
+     * Bank using the given wire format
+     *
+     * @param hostname Hostname or IP
+     * @param port Port number
+     * @param client Agent client
+     * @param format Wire format of the connections
+     * @param poolSize Number of connections
+     */
+    public BankProxy(String hostname, int port, Agent client,
+                     WireFormat format, int poolSize) {
 
-        open = true;
         this.client = client;
-        connectToServer(hostname, port);
 
-        new Thread(this).start();
+        // Notifications go to every connection, only the first one's count
+        connections = new BankConnection[Math.max(poolSize, 1)];
+        for (int i = 0; i < connections.length; i++) {
+            connections[i] = new BankConnection(hostname, port, format,
+                    i == 0 ? this::processMessage : null);
+        }
+
+        // Wait for the first connection, the health check gets the rest
+        connectToServer();
+        for (int i = 1; i < connections.length; i++) connections[i].connect();
+
+        ThreadRunner.start(this);
 
         // Attempt to get the servers of the bank.
         if (this.client != null) {
@@ -60,39 +145,21 @@ public class BankProxy implements BankProcess, Runnable {
      * @param port Port number
      */
     public BankProxy(String hostname, int port) {
-
-        open = true;
-
-        connectToServer(hostname, port);
-
-        new Thread(this).start();
+        this(hostname, port, null, PacketStream.defaultFormat);
     }
 
 
     /**
-     * Connects to a new server
-     *
-     * @param hostname name of host
-     * @param port port to connect to
+     * Connects the first connection, trying again every second until the
+     * Bank is there
      */
-    private void connectToServer(String hostname, int port) {
-        try {
-            // Attempt to establish the socket
-            while (s == null) {
-                s = new Socket(hostname, port);
-
-                os = new ObjectOutputStream(s.getOutputStream());
-                is = new ObjectInputStream(s.getInputStream());
-            }
-
-        } catch (IOException e) {
+    private void connectToServer() {
+        while (!connections[0].connect()) {
             try {
                 Thread.sleep(1000);
             } catch (InterruptedException e1) {
                 e1.printStackTrace();
             }
-            connectToServer(hostname, port);
-//            e.printStackTrace();
         }
     }
 
@@ -101,51 +168,178 @@ public class BankProxy implements BankProcess, Runnable {
      * with given ID
      *
      * @param ID Account ID
-     * @return Account ID
+     * @return Account ID, -1 if the Bank couldn't be asked
      */
     @Override
     public int addAccount(int ID) {
-        BankRequest request = new BankRequest(BankInfo.NEWACCOUNT);
-        request.setID(ID);
+        return await(addAccountAsync(ID), -1);
+    }
 
-        try {
-            // Attempt to write out the object and retrieve it
-            os.writeObject(request);
-            waitOn(request.getPacketID());
+    /**
+     * Makes an account for auction house or agent
+     *
+     * @return Account ID, -1 if the Bank couldn't be asked
+     */
+    public int addAccount() {
+        return await(addAccountAsync(0), -1);
+    }
 
-            BankRequest response = messages.get(request.getPacketID());
-            messages.remove(response.getPacketID());
-            return response.getID();
+    /**
+     * Get the balance of the Account number
+     *
+     * @param AccountID Unique Identifier of Account
+     * @return Amount of money, NaN if the Bank couldn't be asked
+     */
+    @Override
+    public double getBalance(int AccountID) {
+        return await(getBalanceAsync(AccountID), Double.NaN);
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return 0;
+    /**
+     * Gets the total balance, including the locked amount
+     *
+     * @param AccountID Unique Identifier of Account
+     * @return Amount of money, NaN if the Bank couldn't be asked
+     */
+    @Override
+    public double getTotalBalance(int AccountID) {
+        return await(getTotalBalanceAsync(AccountID), Double.NaN);
+    }
 
+    /**
+     * Add the funds to the specified account number
+     *  @param AccountID Unique Identifier of Account
+     * @param amount    Amount of Money
+     */
+    @Override
+    public boolean addFunds(int AccountID, double amount) {
+        return await(addFundsAsync(AccountID, amount), false);
     }
 
     /**
-     * Makes an account for auction house or agent
+     * Removes the funds from the given account
+     *  @param AccountID Unique Identifier of Account
+     * @param amount    Amount of Money
+     */
+    @Override
+    public boolean removeFunds(int AccountID, double amount) {
+        return await(removeFundsAsync(AccountID, amount), false);
+    }
+
+    /**
+     * Locks a certain amount of money away for potential use, returns an
+     * integer value that can be used for later use.
      *
-     * @return Account ID
+     * @param AccountID Unique Identifier of Account
+     * @param amount    Amount of Money
+     * @return Random/Unique Integer of lock, for later retrieval
      */
-    public int addAccount() {
-        BankRequest request = new BankRequest(BankInfo.NEWACCOUNT);
+    @Override
+    public int lockFunds(int AccountID, double amount) {
+        return await(lockFundsAsync(AccountID, amount), -1);
+    }
 
-        try {
-            // Attempt to write out the object and retrieve it
-            os.writeObject(request);
-            waitOn(request.getPacketID());
+    /**
+     * Unlocks the lock given by the identifier!
+     *  @param AccountID Unique Identifier of Account
+     * @param lockID    Identifier of the lock
+     */
+    @Override
+    public boolean unlockFunds(int AccountID, int lockID) {
+        return await(unlockFundsAsync(AccountID, lockID), false);
+    }
 
-            BankRequest response = messages.get(request.getPacketID());
-            messages.remove(response.getPacketID());
-            return response.getID();
+    /**
+     * Changes the amount held by an existing lock
+     *
+     * @param AccountID Unique Identifier of Account
+     * @param lockID    Identifier of the lock
+     * @param amount    New amount of the lock
+     */
+    @Override
+    public boolean adjustLock(int AccountID, int lockID, double amount) {
+        return await(adjustLockAsync(AccountID, lockID, amount), false);
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return 0;
+    /**
+     * Locks funds in one account and unlocks a lock in another as one step
+     *
+     * @param fromID Account holding the old lock
+     * @param lockID Identifier of the old lock
+     * @param toID   Account to lock the funds in
+     * @param amount Amount of Money
+     * @return Identifier of the new lock
+     */
+    @Override
+    public int swapLock(int fromID, int lockID, int toID, double amount) {
+        return await(swapLockAsync(fromID, lockID, toID, amount), -1);
+    }
 
+    /**
+     * Transfer funds of amount specified from ID1 to ID2
+     * @param fromID Unique Identifier of Account1
+     * @param toID   Unique Identifier of Account2
+     * @param amount Amount of Money
+     */
+    @Override
+    public boolean transferFunds(int fromID, int toID, double amount) {
+        return await(transferFundsAsync(fromID, toID, amount), false);
+    }
+
+    /**
+     * Transfer funds based on the lock within the account tied to the fromID
+     *  @param fromID Unique Identifier of Account1
+     * @param toID   Unique Identifier of Account2
+     * @param lockID Lock identifier
+     */
+    @Override
+    public boolean transferFunds(int fromID, int toID, int lockID) {
+        return await(transferFundsAsync(fromID, toID, lockID), false);
+    }
+
+    /**
+     * Add new AuctionHouse server to Bank logs
+     *
+     * @param networkDevice Networked device to open for use
+     * @return status
+     */
+    @Override
+    public boolean openServer(NetworkDevice networkDevice) {
+        return await(openServerAsync(networkDevice), false);
+    }
+
+    /**
+     * Close an AuctionHouse server to Bank logs
+     *
+     * @param networkDevice Networked device to close
+     * @return status of closure
+     */
+    @Override
+    public boolean closeServer(NetworkDevice networkDevice) {
+        return await(closeServerAsync(networkDevice), false);
+    }
+
+    /**
+     * Get the servers currently listed within the Bank's systems
+     *
+     * @return List of servers
+     */
+    @Override
+    public LinkedBlockingQueue<NetworkDevice> getServers() {
+        return await(getServersAsync(), null);
+    }
+
+    /**
+     * Makes an account for auction house or agent
+     *
+     * @param ID Requested ID
+     * @return Account ID
+     */
+    @Override
+    public CompletableFuture<Integer> addAccountAsync(int ID) {
+        BankRequest request = new BankRequest(BankInfo.NEWACCOUNT);
+        request.setID(ID);
+        return send(request).thenApply(BankRequest::getID);
     }
 
     /**
@@ -155,23 +349,10 @@ public class BankProxy implements BankProcess, Runnable {
      * @return Amount of money
      */
     @Override
-    public double getBalance(int AccountID) {
+    public CompletableFuture<Double> getBalanceAsync(int AccountID) {
         BankRequest request = new BankRequest(BankInfo.GETBALANCE);
         request.setID(AccountID);
-
-        try {
-            // Attempt to write out the object and retrieve it
-            os.writeObject(request);
-            waitOn(request.getPacketID());
-
-            BankRequest response = messages.get(request.getPacketID());
-            messages.remove(response.getPacketID());
-            return response.getAmount();
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return 0;
+        return send(request).thenApply(BankRequest::getAmount);
     }
 
     /**
@@ -181,189 +362,152 @@ public class BankProxy implements BankProcess, Runnable {
      * @return Amount of money
      */
     @Override
-    public double getTotalBalance(int AccountID) {
+    public CompletableFuture<Double> getTotalBalanceAsync(int AccountID) {
         BankRequest request = new BankRequest(BankInfo.GETTOTALBALANCE);
         request.setID(AccountID);
-
-        try {
-            os.writeObject(request);
-            waitOn(request.getPacketID());
-
-            BankRequest response = messages.get(request.getPacketID());
-            messages.remove(response.getPacketID());
-            return response.getAmount();
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return 0;
+        return send(request).thenApply(BankRequest::getAmount);
     }
 
     /**
      * Add the funds to the specified account number
-     *  @param AccountID Unique Identifier of Account
-     * @param amount    Amount of Money
+     *
+     * @param AccountID Unique Identifier of Account
+     * @param amount Amount of Money
+     * @return status
      */
     @Override
-    public boolean addFunds(int AccountID, double amount) {
+    public CompletableFuture<Boolean> addFundsAsync(int AccountID,
+                                                    double amount) {
         BankRequest request = new BankRequest(BankInfo.ADD);
         request.setID(AccountID);
         request.setAmount(amount);
-
-        try {
-            // Attempt to write out the object and retrieve it
-            os.writeObject(request);
-            waitOn(request.getPacketID());
-
-            BankRequest response = messages.get(request.getPacketID());
-            messages.remove(response.getPacketID());
-            return response.getStatus();
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return false;
+        return send(request).thenApply(BankRequest::getStatus);
     }
 
     /**
      * Removes the funds from the given account
-     *  @param AccountID Unique Identifier of Account
-     * @param amount    Amount of Money
+     *
+     * @param AccountID Unique Identifier of Account
+     * @param amount Amount of Money
+     * @return status
      */
     @Override
-    public boolean removeFunds(int AccountID, double amount) {
+    public CompletableFuture<Boolean> removeFundsAsync(int AccountID,
+                                                       double amount) {
         BankRequest request = new BankRequest(BankInfo.REMOVE);
         request.setID(AccountID);
         request.setAmount(amount);
-
-        try {
-            os.writeObject(request);
-            waitOn(request.getPacketID());
-
-            BankRequest response = messages.get(request.getPacketID());
-            messages.remove(response.getPacketID());
-            return response.getStatus();
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return false;
+        return send(request).thenApply(BankRequest::getStatus);
     }
 
     /**
-     * Locks a certain amount of money away for potential use, returns an
-     * integer value that can be used for later use.
+     * Locks a certain amount of money away for potential use
      *
      * @param AccountID Unique Identifier of Account
-     * @param amount    Amount of Money
-     * @return Random/Unique Integer of lock, for later retrieval
+     * @param amount Amount of Money
+     * @return Identifier of the lock, -1 if it couldn't be locked
      */
     @Override
-    public int lockFunds(int AccountID, double amount) {
+    public CompletableFuture<Integer> lockFundsAsync(int AccountID,
+                                                     double amount) {
         BankRequest request = new BankRequest(BankInfo.LOCK);
         request.setID(AccountID);
         request.setAmount(amount);
-
-        try {
-            // Attempt to write out the object and retrieve it
-            os.writeObject(request);
-            waitOn(request.getPacketID());
-
-            BankRequest response = messages.get(request.getPacketID());
-            messages.remove(response.getPacketID());
-            return response.getLockNumber();
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return 0;
+        request.setLease(lease());
+        return send(request).thenApply(BankRequest::getLockNumber);
     }
 
     /**
      * Unlocks the lock given by the identifier!
-     *  @param AccountID Unique Identifier of Account
-     * @param lockID    Identifier of the lock
+     *
+     * @param AccountID Unique Identifier of Account
+     * @param lockID Identifier of the lock
+     * @return status
      */
     @Override
-    public boolean unlockFunds(int AccountID, int lockID) {
+    public CompletableFuture<Boolean> unlockFundsAsync(int AccountID,
+                                                       int lockID) {
         BankRequest request = new BankRequest(BankInfo.UNLOCK);
         request.setID(AccountID);
         request.setLockNumber(lockID);
+        return send(request).thenApply(BankRequest::getStatus);
+    }
 
-        try {
-            // Attempt to write out the object and retrieve it
-            os.writeObject(request);
-            waitOn(request.getPacketID());
-
-            BankRequest response = messages.get(request.getPacketID());
-            messages.remove(response.getPacketID());
-            return response.getStatus();
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    /**
+     * Changes the amount held by an existing lock
+     *
+     * @param AccountID Unique Identifier of Account
+     * @param lockID Identifier of the lock
+     * @param amount New amount of the lock
+     * @return status
+     */
+    @Override
+    public CompletableFuture<Boolean> adjustLockAsync(int AccountID,
+                                                      int lockID,
+                                                      double amount) {
+        BankRequest request = new BankRequest(BankInfo.ADJUSTLOCK);
+        request.setID(AccountID);
+        request.setLockNumber(lockID);
+        request.setAmount(amount);
+        request.setLease(lease());
+        return send(request).thenApply(BankRequest::getStatus);
+    }
 
-        return false;
+    /**
+     * Locks funds in one account and unlocks a lock in another as one step
+     *
+     * @param fromID Account holding the old lock
+     * @param lockID Identifier of the old lock
+     * @param toID Account to lock the funds in
+     * @param amount Amount of Money
+     * @return Identifier of the new lock, -1 if it couldn't be locked
+     */
+    @Override
+    public CompletableFuture<Integer> swapLockAsync(int fromID, int lockID,
+                                                    int toID, double amount) {
+        BankRequest request = new BankRequest(BankInfo.SWAPLOCK);
+        request.setID(fromID);
+        request.setLockNumber(lockID);
+        request.setToID(toID);
+        request.setAmount(amount);
+        request.setLease(lease());
+        return send(request).thenApply(BankRequest::getLockNumber);
     }
 
     /**
      * Transfer funds of amount specified from ID1 to ID2
+     *
      * @param fromID Unique Identifier of Account1
-     * @param toID   Unique Identifier of Account2
+     * @param toID Unique Identifier of Account2
      * @param amount Amount of Money
+     * @return status
      */
     @Override
-    public boolean transferFunds(int fromID, int toID, double amount) {
+    public CompletableFuture<Boolean> transferFundsAsync(int fromID, int toID,
+                                                         double amount) {
         BankRequest request = new BankRequest(BankInfo.TRANSFER);
         request.setID(fromID);
         request.setToID(toID);
         request.setAmount(amount);
-
-        try {
-            // Attempt to write out the object and retrieve it
-            os.writeObject(request);
-            waitOn(request.getPacketID());
-
-            BankRequest response = messages.get(request.getPacketID());
-            messages.remove(response.getPacketID());
-            return response.getStatus();
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return false;
+        return send(request).thenApply(BankRequest::getStatus);
     }
 
     /**
      * Transfer funds based on the lock within the account tied to the fromID
-     *  @param fromID Unique Identifier of Account1
-     * @param toID   Unique Identifier of Account2
+     *
+     * @param fromID Unique Identifier of Account1
+     * @param toID Unique Identifier of Account2
      * @param lockID Lock identifier
+     * @return status
      */
     @Override
-    public boolean transferFunds(int fromID, int toID, int lockID) {
+    public CompletableFuture<Boolean> transferFundsAsync(int fromID, int toID,
+                                                         int lockID) {
         BankRequest request = new BankRequest(BankInfo.TRANSFERFROMLOCK);
         request.setID(fromID);
         request.setToID(toID);
         request.setLockNumber(lockID);
-
-        try {
-            // Attempt to write out the object and retrieve it
-            os.writeObject(request);
-            waitOn(request.getPacketID());
-
-            BankRequest response = messages.get(request.getPacketID());
-            messages.remove(response.getPacketID());
-            return response.getStatus();
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return false;
+        return send(request).thenApply(BankRequest::getStatus);
     }
 
     /**
@@ -373,25 +517,11 @@ public class BankProxy implements BankProcess, Runnable {
      * @return status
      */
     @Override
-    public boolean openServer(NetworkDevice networkDevice) {
-
+    public CompletableFuture<Boolean> openServerAsync(
+            NetworkDevice networkDevice) {
         BankRequest request = new BankRequest(BankInfo.OPENAUCTION);
         request.addNetworkDevices(networkDevice);
-
-        try {
-            // Attempt to write out the object and retrieve it
-            os.writeObject(request);
-            waitOn(request.getPacketID());
-
-            BankRequest response = messages.get(request.getPacketID());
-            messages.remove(response.getPacketID());
-            return response.getStatus();
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return false;
+        return send(request).thenApply(BankRequest::getStatus);
     }
 
     /**
@@ -401,93 +531,298 @@ public class BankProxy implements BankProcess, Runnable {
      * @return status of closure
      */
     @Override
-    public boolean closeServer(NetworkDevice networkDevice) {
-
+    public CompletableFuture<Boolean> closeServerAsync(
+            NetworkDevice networkDevice) {
         BankRequest request = new BankRequest(BankInfo.CLOSEAUCTION);
         request.addNetworkDevices(networkDevice);
+        return send(request).thenApply(BankRequest::getStatus);
+    }
+
+    /**
+     * Get the servers currently listed within the Bank's systems
+     *
+     * @return List of servers
+     */
+    @Override
+    public CompletableFuture<LinkedBlockingQueue<NetworkDevice>>
+            getServersAsync() {
+        BankRequest request = new BankRequest(BankInfo.GETAUCTIONS);
+        return send(request).thenApply(BankRequest::getNetworkDevices);
+    }
+
+    /**
+     * Sets what runs when the Bank no longer knows this proxy's lease, so
+     * the locks on it aren't kept
+     *
+     * @param handler Puts the locks back on the lease, null for nothing
+     */
+    public void setLeaseLostHandler(Runnable handler) {
+        this.leaseLostHandler = handler;
+    }
+
+    /**
+     * Starts sending account operations in batches. Can only be turned on
+     * once.
+     *
+     * @param windowMicros How long the first operation of a batch waits for
+     *                     others, 0 to only batch what piles up while
+     *                     sending
+     * @param maxOperations Most operations sent in one batch
+     */
+    public void setBatching(long windowMicros, int maxOperations) {
+        boolean start = batchWindow < 0;
+
+        batchSize = Math.max(maxOperations, 1);
+        batchWindow = TimeUnit.MICROSECONDS.toNanos(
+                Math.max(windowMicros, 0));
+
+        if (start) ThreadRunner.start(this::sendBatches);
+    }
 
+    /**
+     * Sends the operations held back so far without waiting for the window
+     */
+    public void flush() {
+        batchLock.lock();
         try {
-            // Attempt to write out the object and retrieve it
-            os.writeObject(request);
-            waitOn(request.getPacketID());
+            if (!queued.isEmpty()) {
+                flushRequested = true;
+                batchReady.signal();
+            }
+        } finally {
+            batchLock.unlock();
+        }
+    }
+
+    /**
+     * Sends the request, or holds it back for the next batch if it's an
+     * account operation and batching is on
+     *
+     * @param request Request to send
+     * @return future completed with the response
+     */
+    private CompletableFuture<BankRequest> send(BankRequest request) {
+        if (batchWindow < 0 || !batchable(request.getType())) {
+            return sendNow(request);
+        }
 
-            BankRequest response = messages.get(request.getPacketID());
-            messages.remove(response.getPacketID());
-            return response.getStatus();
+        Queued entry = new Queued(request);
+        batchLock.lock();
+        try {
+            queued.add(entry);
 
-        } catch (IOException e) {
-            e.printStackTrace();
+            // Wake the sender for a new batch or a full one
+            if (queued.size() == 1 || queued.size() >= batchSize) {
+                batchReady.signal();
+            }
+        } finally {
+            batchLock.unlock();
         }
+        return entry.future;
+    }
 
-        return false;
+    /**
+     * @param type Type of request
+     * @return whether it can go in a batch
+     */
+    private static boolean batchable(BankInfo type) {
+        switch (type) {
+            case NEWACCOUNT:
+            case OPENAUCTION:
+            case CLOSEAUCTION:
+            case GETAUCTIONS:
+            case BATCH:
+            case RENEWLEASE:
+                return false;
+            default:
+                return true;
+        }
     }
 
     /**
-     * Get the servers currently listed within the Bank's systems
+     * Sender thread, waits for operations to gather and sends them
+     */
+    private void sendBatches() {
+        // Keeps going once closed, so what's queued still fails fast
+        while (true) {
+            ArrayList<Queued> batch;
+
+            batchLock.lock();
+            try {
+                while (queued.isEmpty()) batchReady.awaitUninterruptibly();
+
+                // Give the window a chance to fill the batch
+                long wait = batchWindow;
+                while (wait > 0 && queued.size() < batchSize &&
+                        !flushRequested) {
+                    wait = batchReady.awaitNanos(wait);
+                }
+
+                batch = queued;
+                queued = new ArrayList<>();
+                flushRequested = false;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                batchLock.unlock();
+            }
+
+            for (int i = 0; i < batch.size(); i += batchSize) {
+                sendBatch(batch.subList(i,
+                        Math.min(i + batchSize, batch.size())));
+            }
+        }
+    }
+
+    /**
+     * Sends operations as one BATCH request, or on their own if it's just
+     * one, and hands each its own result
      *
-     * @return List of servers
+     * @param batch Operations to send
      */
-    @Override
-    public LinkedBlockingQueue<NetworkDevice> getServers() {
-        BankRequest request = new BankRequest(BankInfo.GETAUCTIONS);
+    private void sendBatch(List<Queued> batch) {
+        if (batch.size() == 1) {
+            Queued entry = batch.get(0);
+            sendNow(entry.request).whenComplete((response, error) ->
+                    entry.complete(response, error));
+            return;
+        }
 
-        try {
-            // Attempt to write out the object and retrieve it
-            os.writeObject(request);
-            waitOn(request.getPacketID());
+        BankRequest request = new BankRequest(BankInfo.BATCH);
+        for (Queued entry : batch) request.addOperation(entry.request);
+
+        ArrayList<Queued> entries = new ArrayList<>(batch);
+        sendNow(request).whenComplete((response, error) -> {
+            ArrayList<BankRequest> results =
+                    response == null ? null : response.getOperations();
+
+            for (int i = 0; i < entries.size(); i++) {
+                if (error == null && (results == null ||
+                        i >= results.size())) {
+                    error = new IOException("Batch came back short");
+                }
+                entries.get(i).complete(
+                        error == null ? results.get(i) : null, error);
+            }
+        });
+    }
+
+    /**
+     * Writes the request out on the open connection with the fewest
+     * requests waiting
+     *
+     * @param request Request to send
+     * @return future completed with the response
+     */
+    private CompletableFuture<BankRequest> sendNow(BankRequest request) {
+        // Start at a different connection each time so ties spread out
+        int start = nextConnection.getAndIncrement() & Integer.MAX_VALUE;
+        BankConnection best = null;
+
+        for (int i = 0; i < connections.length; i++) {
+            BankConnection connection =
+                    connections[(start + i) % connections.length];
+            if (!connection.isOpen()) continue;
+
+            if (best == null ||
+                    connection.outstanding() < best.outstanding()) {
+                best = connection;
+            }
+        }
 
-            BankRequest response = messages.get(request.getPacketID());
-            messages.remove(response.getPacketID());
-            return response.getNetworkDevices();
+        // All down, the first one fails the request
+        if (best == null) best = connections[0];
+        return best.send(request);
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Waits for a future, falling back to a default when the request failed
+     *
+     * @param future Future to wait on
+     * @param fallback Value if it failed
+     * @param <V> Type of the result
+     * @return result or fallback
+     */
+    private static <V> V await(CompletableFuture<V> future, V fallback) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        return fallback;
+    }
 
-        return null;
+    /**
+     * @return lease for a new lock, renewed from now on
+     */
+    private int lease() {
+        leased = true;
+        return leaseID;
     }
 
     /**
-     * @return status of the bank
+     * Tells the owner when a renewal found the lease gone, on a thread of
+     * its own since the handler calls the Bank again
+     *
+     * @param response Answer to RENEWLEASE
      */
-    private boolean isOpen() {
-        return open;
+    private void renewed(BankRequest response) {
+        Runnable handler = leaseLostHandler;
+        if (Boolean.TRUE.equals(response.getStatus()) || handler == null) {
+            return;
+        }
+
+        System.out.println("The bank lost lease " + leaseID);
+        ThreadRunner.start(handler);
     }
 
     /**
-     * When an object implementing interface <code>Runnable</code> is used
-     * to create a thread, starting the thread causes the object's
-     * <code>run</code> method to be called in that separately executing
-     * thread.
-     * <p>
-     * The general contract of the method <code>run</code> is that it may
-     * take any action whatsoever.
+     * Health check, connects broken connections again and closes ones that
+     * stopped answering. Also renews the lease on this proxy's locks.
      *
      * @see Thread#run()
      */
     @Override
     public void run() {
-        while (isOpen()) {
+        long stall = TimeUnit.MILLISECONDS.toNanos(STALL_TIMEOUT);
+        long lastRenewal = System.nanoTime();
 
-            // Attempt to read and parse incoming messages
-            BankRequest response;
+        while (true) {
             try {
-                response = (BankRequest)is.readObject();
-            } catch (IOException | ClassNotFoundException e) {
-                e.printStackTrace();
+                Thread.sleep(HEALTH_INTERVAL);
+            } catch (InterruptedException e) {
                 return;
             }
 
-            // Process the messages
-            if (response.getAck()) {
-                messages.put(response.getPacketID(), response);
-                synchronized (this) { notify(); }
-            } else {
-//                System.out.println("Processing");
-                processMessage(response);
+            // One request renews every lock on the lease
+            if (leased && System.nanoTime() - lastRenewal >
+                    TimeUnit.MILLISECONDS.toNanos(LEASE_RENEW_INTERVAL)) {
+                BankRequest renewal = new BankRequest(BankInfo.RENEWLEASE);
+                renewal.setLease(leaseID);
+                sendNow(renewal).thenAccept(this::renewed);
+                lastRenewal = System.nanoTime();
             }
-        }
 
+            for (int i = 0; i < connections.length; i++) {
+                BankConnection connection = connections[i];
+
+                if (!connection.isOpen()) {
+                    if (connection.connect()) {
+                        System.out.println("Connection " + i + " to the " +
+                                "bank is back");
+                    }
+                } else if (connection.outstanding() > 0 &&
+                        connection.silentFor() > stall) {
+                    // Requests waiting and nothing heard, fail them and
+                    // connect again on the next check
+                    System.out.println("Connection " + i + " to the bank " +
+                            "stopped answering");
+                    connection.close();
+                }
+            }
+        }
     }
 
     /**
@@ -513,20 +848,31 @@ public class BankProxy implements BankProcess, Runnable {
     }
 
     /**
-     * Wait on randomly generate packet ID
-     *
-     * @param packetID packet ID
+     * Account operation held back for a batch with the future its caller
+     * waits on
      */
-    private void waitOn(int packetID) {
-        // Wait on the ID
-        synchronized (this) {
-            while (!messages.containsKey(packetID)) {
-                try {
-                    wait();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
+    private static class Queued {
+
+        private final BankRequest request;
+        private final CompletableFuture<BankRequest> future =
+                new CompletableFuture<>();
+
+        /**
+         * @param request Operation to send
+         */
+        private Queued(BankRequest request) {
+            this.request = request;
+        }
+
+        /**
+         * Hands the operation its result
+         *
+         * @param response Result of the operation
+         * @param error Why it failed, null if it didn't
+         */
+        private void complete(BankRequest response, Throwable error) {
+            if (error != null) future.completeExceptionally(error);
+            else future.complete(response);
         }
     }
 
@@ -3,6 +3,7 @@ package BankProxy;
 import Network.NetworkDevice;
 import Network.Packet;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.concurrent.LinkedBlockingQueue;
 
 /**
@@ -16,7 +17,9 @@ public class BankRequest extends Packet implements Serializable {
     private int ID1;
     private double amount;
     private int lockNumber;
+    private int lease;
     private LinkedBlockingQueue<NetworkDevice> networkDevices;
+    private ArrayList<BankRequest> operations;
 
     /**
      * Constructs a request with a packetID
@@ -106,6 +109,20 @@ public class BankRequest extends Packet implements Serializable {
         this.lockNumber = lockNumber;
     }
 
+    /**
+     * @return lease the locks of this request go on, 0 for none
+     */
+    public int getLease() {
+        return lease;
+    }
+
+    /**
+     * @param lease set the lease the locks of this request go on
+     */
+    public void setLease(int lease) {
+        this.lease = lease;
+    }
+
     /**
      * @return list of network devices
      */
@@ -142,4 +159,24 @@ public class BankRequest extends Packet implements Serializable {
         networkDevices.add(networkDevice);
     }
 
+    /**
+     * @return operations of a BATCH request, or their results in order for
+     * a BATCH response, null otherwise
+     */
+    public ArrayList<BankRequest> getOperations() {
+        return operations;
+    }
+
+    /**
+     * Add an operation to a BATCH request, or its result to the response
+     *
+     * @param operation operation or result to add
+     */
+    public void addOperation(BankRequest operation) {
+        if (operations == null) {
+            operations = new ArrayList<>();
+        }
+        operations.add(operation);
+    }
+
 }
@@ -0,0 +1,110 @@
+package Benchmark;
+
+import Bank.Bank;
+import BankProxy.BankProcess;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the locking engine of the Bank at 1, 8 and 64 clients.
+ *
+ * Each client is a thread calling the Bank the way a communicator thread
+ * does for one request, so socket and logging costs are left out. A client
+ * locks funds on its own account, raises the lock, pays it to an auction
+ * house account every client shares and tops its account back up. Prints
+ * operations per second and the mean time per operation.
+ */
+public class BankEngineBenchmark {
+
+    private static final int[] CLIENTS = {1, 8, 64};
+    private static final long WARMUP_MILLIS = 1000;
+    private static final long RUN_MILLIS = 3000;
+
+    // Bank operations per round of a client
+    private static final int OPS_PER_ROUND = 4;
+
+    /**
+     * Runs the benchmark
+     *
+     * @param args Optional milliseconds per measurement
+     * @throws Exception if a client is interrupted
+     */
+    public static void main(String[] args) throws Exception {
+        long millis = args.length > 0 ? Long.parseLong(args[0]) : RUN_MILLIS;
+
+        // Port 0, the server is only there because the Bank starts one
+        Bank locking = new Bank(0, 1, null);
+
+        System.out.printf("%-10s %8s %14s %12s%n", "engine", "clients",
+                "ops/s", "ns/op");
+
+        for (int clients : CLIENTS) {
+            run("locking", locking, clients, millis);
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * Measures one engine with a number of clients
+     *
+     * @param name Name to print
+     * @param bank Bank to call
+     * @param clients Number of client threads
+     * @param millis How long to measure
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static void run(String name, Bank bank, int clients,
+                            long millis) throws InterruptedException {
+        int house = bank.addAccount();
+
+        LongAdder rounds = new LongAdder();
+        AtomicBoolean measuring = new AtomicBoolean();
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch done = new CountDownLatch(clients);
+
+        for (int i = 0; i < clients; i++) {
+            int account = bank.addAccount();
+            bank.addFunds(account, 1000);
+            int houseAccount = house;
+
+            Thread client = new Thread(() -> {
+                while (running.get()) {
+                    round(bank, account, houseAccount);
+                    if (measuring.get()) rounds.increment();
+                }
+                done.countDown();
+            });
+            client.setDaemon(true);
+            client.start();
+        }
+
+        Thread.sleep(WARMUP_MILLIS);
+        measuring.set(true);
+        long start = System.nanoTime();
+        Thread.sleep(millis);
+        measuring.set(false);
+        long elapsed = System.nanoTime() - start;
+        running.set(false);
+        done.await();
+
+        long ops = rounds.sum() * OPS_PER_ROUND;
+        System.out.printf("%-10s %8d %14.0f %12.0f%n", name, clients,
+                ops * 1e9 / elapsed, (double) elapsed * clients / ops);
+    }
+
+    /**
+     * One bid settled for a client
+     *
+     * @param bank Bank to call
+     * @param account Client's account
+     * @param house Auction house account
+     */
+    private static void round(BankProcess bank, int account, int house) {
+        int lockID = bank.lockFunds(account, 1);
+        bank.adjustLock(account, lockID, 2);
+        bank.transferFunds(account, house, lockID);
+        bank.addFunds(account, 2);
+    }
+}
@@ -0,0 +1,239 @@
+package Benchmark;
+
+import AuctionHouse.Bid;
+import AuctionHouse.ItemInfo;
+import AuctionProxy.AuctionCodec;
+import AuctionProxy.AuctionInfo;
+import AuctionProxy.AuctionRequest;
+import AuctionProxy.BidInfo;
+import BankProxy.BankCodec;
+import BankProxy.BankInfo;
+import BankProxy.BankRequest;
+import Network.NetworkDevice;
+import Network.Packet;
+import Network.PacketCodec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.function.Supplier;
+
+/**
+ * Compares Java serialization against the binary codecs for the messages
+ * that make up most of the traffic.
+ *
+ * Serialization is measured the way the communicators use it, with one long
+ * lived object stream and a fresh request object per message, so class
+ * descriptors are only paid once. Prints bytes
+ * per message and encode/decode nanoseconds per message for both.
+ */
+public class CodecBenchmark {
+
+    private static final int WARMUP = 20000;
+    private static final int MESSAGES = 200000;
+
+    /**
+     * Runs the benchmark
+     *
+     * @param args Optional message count
+     * @throws Exception if encoding fails
+     */
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : MESSAGES;
+
+        System.out.printf("%-20s %10s %10s %10s %10s %10s %10s%n", "message",
+                "ser B", "bin B", "ser enc", "bin enc", "ser dec",
+                "bin dec");
+
+        BankCodec bankCodec = new BankCodec();
+        run("bank LOCK", CodecBenchmark::bankLock, bankCodec, messages);
+        run("bank LOCK reply", CodecBenchmark::bankLockReply, bankCodec, messages);
+        run("bank GETAUCTIONS", CodecBenchmark::bankAuctions, bankCodec, messages);
+
+        AuctionCodec auctionCodec = new AuctionCodec();
+        run("auction BID", CodecBenchmark::auctionBid, auctionCodec, messages);
+        run("auction BID reply", CodecBenchmark::auctionBidReply, auctionCodec, messages);
+        run("auction OUTBID", CodecBenchmark::auctionOutbid, auctionCodec, messages);
+        run("auction GETALL", CodecBenchmark::auctionItems, auctionCodec, messages);
+    }
+
+    /**
+     * Measures one message type with both encodings
+     *
+     * @param name Name to print
+     * @param messageSource Creates a new copy of the message
+     * @param codec Binary codec
+     * @param messages Number of messages to time
+     * @param <T> Packet type
+     * @throws Exception if encoding fails
+     */
+    private static <T extends Packet> void run(String name,
+                                               Supplier<T> messageSource,
+                                               PacketCodec<T> codec,
+                                               int messages)
+            throws Exception {
+        T packet = messageSource.get();
+
+        // Warm up both paths first
+        serializedEncode(messageSource, WARMUP);
+        serializedDecode(serializedEncode(messageSource, WARMUP), WARMUP);
+        binaryEncode(packet, codec, WARMUP);
+        binaryDecode(codec.encode(packet), codec, WARMUP);
+
+        // Serialization
+        long start = System.nanoTime();
+        ByteArrayOutputStream serialized =
+                serializedEncode(messageSource, messages);
+        double serEncode = (System.nanoTime() - start) / (double) messages;
+
+        start = System.nanoTime();
+        serializedDecode(serialized, messages);
+        double serDecode = (System.nanoTime() - start) / (double) messages;
+
+        // Size of one message once the descriptors have been sent
+        int serBytes = serializedEncode(messageSource, 2).size() -
+                serializedEncode(messageSource, 1).size();
+
+        // Binary codec
+        start = System.nanoTime();
+        binaryEncode(packet, codec, messages);
+        double binEncode = (System.nanoTime() - start) / (double) messages;
+
+        byte[] frame = codec.encode(packet);
+        start = System.nanoTime();
+        binaryDecode(frame, codec, messages);
+        double binDecode = (System.nanoTime() - start) / (double) messages;
+
+        System.out.printf("%-20s %10d %10d %10.0f %10.0f %10.0f %10.0f%n",
+                name, serBytes, frame.length, serEncode, binEncode,
+                serDecode, binDecode);
+    }
+
+    /**
+     * Writes new copies of a packet into one object stream
+     *
+     * @param messageSource Creates the copies
+     * @param count Number of copies
+     * @return bytes written
+     * @throws IOException if writing fails
+     */
+    private static ByteArrayOutputStream serializedEncode(
+            Supplier<? extends Packet> messageSource, int count)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream os = new ObjectOutputStream(bytes);
+        for (int i = 0; i < count; i++) {
+            os.writeObject(messageSource.get());
+        }
+        os.flush();
+        return bytes;
+    }
+
+    /**
+     * Reads packets back from an object stream
+     *
+     * @param bytes Bytes written by serializedEncode
+     * @param count Number of packets to read
+     * @throws Exception if reading fails
+     */
+    private static void serializedDecode(ByteArrayOutputStream bytes,
+                                         int count) throws Exception {
+        ObjectInputStream is = new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()));
+        for (int i = 0; i < count; i++) is.readObject();
+    }
+
+    /**
+     * Encodes a packet repeatedly with the codec
+     *
+     * @param packet Packet to encode
+     * @param codec Codec to use
+     * @param count Number of times
+     * @param <T> Packet type
+     * @return total bytes, so the work isn't optimized away
+     * @throws IOException if encoding fails
+     */
+    private static <T extends Packet> long binaryEncode(T packet,
+                                                        PacketCodec<T> codec,
+                                                        int count)
+            throws IOException {
+        long total = 0;
+        for (int i = 0; i < count; i++) total += codec.encode(packet).length;
+        return total;
+    }
+
+    /**
+     * Decodes a frame repeatedly with the codec
+     *
+     * @param frame Frame including the length prefix
+     * @param codec Codec to use
+     * @param count Number of times
+     * @param <T> Packet type
+     * @return sum of packet IDs, so the work isn't optimized away
+     * @throws IOException if decoding fails
+     */
+    private static <T extends Packet> long binaryDecode(byte[] frame,
+                                                        PacketCodec<T> codec,
+                                                        int count)
+            throws IOException {
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            total += codec.decode(frame, 4, frame.length - 4).getPacketID();
+        }
+        return total;
+    }
+
+    private static BankRequest bankLock() {
+        BankRequest br = new BankRequest(BankInfo.LOCK);
+        br.setID(12);
+        br.setAmount(1000);
+        return br;
+    }
+
+    private static BankRequest bankLockReply() {
+        BankRequest br = new BankRequest(BankInfo.LOCK, 123456789);
+        br.setLockNumber(499111566);
+        return br;
+    }
+
+    private static BankRequest bankAuctions() {
+        BankRequest br = new BankRequest(BankInfo.GETAUCTIONS, 123456789);
+        br.addNetworkDevices(new NetworkDevice("127.0.0.1", 42069));
+        br.addNetworkDevices(new NetworkDevice("127.0.0.1", 42071));
+        return br;
+    }
+
+    private static AuctionRequest auctionBid() {
+        AuctionRequest ar = new AuctionRequest(AuctionInfo.BID);
+        ar.setBid(new Bid(1000, 12, 32));
+        return ar;
+    }
+
+    private static AuctionRequest auctionBidReply() {
+        AuctionRequest ar = new AuctionRequest(AuctionInfo.BID, 123456789);
+        ar.setBidStatus(BidInfo.ACCEPTANCE);
+        return ar;
+    }
+
+    private static AuctionRequest auctionOutbid() {
+        AuctionRequest ar = new AuctionRequest(AuctionInfo.BID);
+        ar.setAck(false);
+        ar.setBidStatus(BidInfo.OUTBID);
+        ar.setItemInfo(new ItemInfo("Clock", 1200, 32));
+        ar.setNewAmount(1200);
+        return ar;
+    }
+
+    private static AuctionRequest auctionItems() {
+        ArrayList<ItemInfo> items = new ArrayList<>();
+        items.add(new ItemInfo("Clock", 100, 0));
+        items.add(new ItemInfo("Lock", 50, 1));
+        items.add(new ItemInfo("Glock", 300, 2));
+
+        AuctionRequest ar = new AuctionRequest(AuctionInfo.GETALL, 123456789);
+        ar.setItems(items);
+        return ar;
+    }
+}
@@ -0,0 +1,207 @@
+package Concurrency;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timing wheel that runs many deadlines off one thread.
+ *
+ * Time is cut into ticks and every timeout lands in the bucket of the tick
+ * it expires on, along with how many turns of the wheel are left. Each tick
+ * only the current bucket is walked, so the cost per tick does not depend on
+ * how many timeouts exist. Expired tasks are handed to an executor so a slow
+ * task never delays the wheel.
+ *
+ * Scheduling and cancelling are safe from any thread.
+ */
+public class HashedWheelTimer implements Runnable {
+
+    // Timeouts moved into the wheel per tick, so a burst can't stall it
+    private static final int MAX_TRANSFER_PER_TICK = 100000;
+
+    private long tickNanos;
+    private Timeout[] buckets;
+    private int mask;
+    private Executor executor;
+    private ConcurrentLinkedQueue<Timeout> newTimeouts =
+            new ConcurrentLinkedQueue<>();
+    private long startTime;
+    private long tick = 0;
+    private volatile boolean running = true;
+
+    /**
+     * Creates and starts a timer
+     *
+     * @param tickMillis Length of one tick, the precision of the timer
+     * @param wheelSize Number of buckets, rounded up to a power of two
+     * @param executor Runs the expired tasks
+     */
+    public HashedWheelTimer(long tickMillis, int wheelSize,
+                            Executor executor) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        this.executor = executor;
+
+        int size = 1;
+        while (size < wheelSize) size <<= 1;
+        buckets = new Timeout[size];
+        mask = size - 1;
+
+        startTime = System.nanoTime();
+        ThreadRunner.start(this);
+    }
+
+    /**
+     * Runs a task once the delay has passed
+     *
+     * @param task Task to run
+     * @param delayMillis Delay in milliseconds
+     * @return handle that can cancel the task
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        long deadline = System.nanoTime() - startTime +
+                TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+        Timeout timeout = new Timeout(task, deadline);
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stops the wheel, pending timeouts never run
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Advances the wheel one tick at a time
+     */
+    @Override
+    public void run() {
+        while (running) {
+            long deadline = waitForNextTick();
+            if (deadline < 0) continue;
+
+            transferNewTimeouts();
+            expire(tick & mask, deadline);
+            tick++;
+        }
+    }
+
+    /**
+     * Sleeps until the current tick ends
+     *
+     * @return time of the end of the tick relative to the start, -1 if the
+     * sleep was interrupted
+     */
+    private long waitForNextTick() {
+        long deadline = tickNanos * (tick + 1);
+
+        while (true) {
+            long now = System.nanoTime() - startTime;
+            long sleepNanos = deadline - now;
+            if (sleepNanos <= 0) return now;
+
+            try {
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            } catch (InterruptedException e) {
+                if (!running) return -1;
+            }
+        }
+    }
+
+    /**
+     * Moves newly scheduled timeouts into their buckets
+     */
+    private void transferNewTimeouts() {
+        for (int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+            Timeout timeout = newTimeouts.poll();
+            if (timeout == null) return;
+            if (timeout.cancelled) continue;
+
+            // Ticks until expiry, never behind the current tick
+            long expiryTick = Math.max(timeout.deadline / tickNanos, tick);
+            timeout.remainingRounds = (expiryTick - tick) / buckets.length;
+
+            int index = (int) (expiryTick & mask);
+            timeout.next = buckets[index];
+            buckets[index] = timeout;
+        }
+    }
+
+    /**
+     * Walks one bucket, running what is due and counting down the rest
+     *
+     * @param index Bucket to walk
+     * @param now End of the current tick
+     */
+    private void expire(long index, long now) {
+        Timeout previous = null;
+        Timeout timeout = buckets[(int) index];
+
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            boolean remove = false;
+
+            if (timeout.cancelled) {
+                remove = true;
+            } else if (timeout.remainingRounds <= 0 &&
+                    timeout.deadline <= now) {
+                remove = true;
+                timeout.expired = true;
+                executor.execute(timeout.task);
+            } else {
+                timeout.remainingRounds--;
+            }
+
+            // Unlink removed timeouts
+            if (remove) {
+                if (previous == null) buckets[(int) index] = next;
+                else previous.next = next;
+                timeout.next = null;
+            } else {
+                previous = timeout;
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * A scheduled task
+     */
+    public static class Timeout {
+
+        private Runnable task;
+        private long deadline;
+        private long remainingRounds;
+        private Timeout next;
+        private volatile boolean cancelled = false;
+        private volatile boolean expired = false;
+
+        /**
+         * @param task Task to run
+         * @param deadline Deadline relative to the timer's start
+         */
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Stops the task from running if it hasn't yet
+         *
+         * @return false if it already ran
+         */
+        public boolean cancel() {
+            cancelled = true;
+            return !expired;
+        }
+
+        /**
+         * @return whether the task was handed to the executor
+         */
+        public boolean isExpired() {
+            return expired;
+        }
+    }
+}
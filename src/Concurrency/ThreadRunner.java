@@ -0,0 +1,96 @@
+package Concurrency;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Starts every communicator, proxy and item thread so they can be switched
+ * between platform and virtual threads in one place.
+ *
+ * Virtual threads are picked with -Dauction.threads=virtual or
+ * setVirtual(true). They need a JVM that has them, on older JVMs platform
+ * threads are used instead. Looked up reflectively so the code still builds
+ * for Java 8.
+ */
+public class ThreadRunner {
+
+    private static volatile boolean virtual =
+            "virtual".equalsIgnoreCase(System.getProperty("auction.threads"));
+
+    // Thread.ofVirtual() and Thread.Builder.start(Runnable), when present
+    private static Method ofVirtual;
+    private static Method builderStart;
+    private static Method virtualExecutor;
+
+    static {
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            builderStart = Class.forName("java.lang.Thread$Builder")
+                    .getMethod("start", Runnable.class);
+            virtualExecutor = Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (ReflectiveOperationException e) {
+            ofVirtual = null;
+        }
+    }
+
+    private ThreadRunner() {
+    }
+
+    /**
+     * Switches between virtual and platform threads for threads started
+     * from now on
+     *
+     * @param useVirtual true for virtual threads
+     */
+    public static void setVirtual(boolean useVirtual) {
+        virtual = useVirtual;
+    }
+
+    /**
+     * @return true if new threads will be virtual
+     */
+    public static boolean isVirtual() {
+        return virtual && ofVirtual != null;
+    }
+
+    /**
+     * Starts a task on its own thread
+     *
+     * @param task Task to run
+     * @return started thread
+     */
+    public static Thread start(Runnable task) {
+        if (isVirtual()) {
+            try {
+                return (Thread) builderStart.invoke(ofVirtual.invoke(null),
+                        task);
+            } catch (ReflectiveOperationException e) {
+                e.printStackTrace();
+            }
+        }
+
+        Thread thread = new Thread(task);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Creates an executor for short tasks. With virtual threads every task
+     * gets its own thread, otherwise a fixed pool of the given size is used.
+     *
+     * @param threads Size of the platform pool
+     * @return executor
+     */
+    public static ExecutorService newPool(int threads) {
+        if (isVirtual()) {
+            try {
+                return (ExecutorService) virtualExecutor.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                e.printStackTrace();
+            }
+        }
+        return Executors.newFixedThreadPool(threads);
+    }
+}
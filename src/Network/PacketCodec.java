@@ -0,0 +1,115 @@
+package Network;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Length-prefixed binary encoding for a Packet subclass.
+ *
+ * A frame is a 4 byte body length followed by the body. The body starts with
+ * the shared Packet header (type, packetID, flags) and the rest is written by
+ * the subclass.
+ *
+ * @param <T> Packet type handled by the codec
+ */
+public abstract class PacketCodec<T extends Packet> {
+
+    // Largest body that will be accepted from the network
+    public static final int MAX_FRAME = 16 * 1024 * 1024;
+
+    // Flag bits of the shared header
+    private static final int ACK = 1;
+    private static final int STATUS = 2;
+
+    /**
+     * Encodes a packet into a complete frame, length prefix included
+     *
+     * @param packet Packet to encode
+     * @return frame bytes
+     * @throws IOException if the packet can't be written
+     */
+    public byte[] encode(T packet) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        // Reserve the length and fill it in once the body is known
+        out.writeInt(0);
+        write(packet, out);
+        out.flush();
+
+        byte[] frame = bytes.toByteArray();
+        int length = frame.length - 4;
+        frame[0] = (byte) (length >>> 24);
+        frame[1] = (byte) (length >>> 16);
+        frame[2] = (byte) (length >>> 8);
+        frame[3] = (byte) length;
+        return frame;
+    }
+
+    /**
+     * Decodes a frame body (without the length prefix)
+     *
+     * @param body Buffer holding the body
+     * @param offset Start of the body
+     * @param length Length of the body
+     * @return decoded packet
+     * @throws IOException if the body is malformed
+     */
+    public T decode(byte[] body, int offset, int length) throws IOException {
+        return read(new DataInputStream(
+                new ByteArrayInputStream(body, offset, length)));
+    }
+
+    /**
+     * Writes the body of the packet
+     *
+     * @param packet Packet to write
+     * @param out Output to write to
+     * @throws IOException if writing fails
+     */
+    protected abstract void write(T packet, DataOutputStream out)
+            throws IOException;
+
+    /**
+     * Reads the body of a packet
+     *
+     * @param in Input holding a single body
+     * @return Packet that was read
+     * @throws IOException if the body is malformed
+     */
+    protected abstract T read(DataInputStream in) throws IOException;
+
+    /**
+     * Writes the header shared by every packet
+     *
+     * @param packet Packet being written
+     * @param type Ordinal of the packet's type
+     * @param out Output to write to
+     * @throws IOException if writing fails
+     */
+    protected static void writeHeader(Packet packet, int type,
+                                      DataOutputStream out)
+            throws IOException {
+        int flags = 0;
+        if (packet.getAck()) flags |= ACK;
+        if (packet.getStatus()) flags |= STATUS;
+
+        out.writeByte(type);
+        out.writeInt(packet.getPacketID());
+        out.writeByte(flags);
+    }
+
+    /**
+     * Applies the flags of the shared header onto a decoded packet
+     *
+     * @param packet Packet being decoded
+     * @param flags Flags byte that was read
+     */
+    protected static void applyFlags(Packet packet, int flags) {
+        packet.setAck((flags & ACK) != 0);
+        packet.setStatus((flags & STATUS) != 0);
+    }
+}
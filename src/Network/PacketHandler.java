@@ -0,0 +1,31 @@
+package Network;
+
+/**
+ * Callbacks a SelectorServer makes for its connections
+ *
+ * @param <T> Packet type carried by the connections
+ */
+public interface PacketHandler<T extends Packet> {
+
+    /**
+     * A new connection was accepted
+     *
+     * @param connection New connection
+     */
+    void connected(SelectorConnection<T> connection);
+
+    /**
+     * A complete packet was decoded
+     *
+     * @param connection Connection it arrived on
+     * @param packet Packet that was decoded
+     */
+    void received(SelectorConnection<T> connection, T packet);
+
+    /**
+     * The connection was closed, called once per connection
+     *
+     * @param connection Connection that closed
+     */
+    void disconnected(SelectorConnection<T> connection);
+}
@@ -0,0 +1,174 @@
+package Network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Packet stream over a socket using either Java serialization or a
+ * PacketCodec.
+ *
+ * The connecting side picks the format. A binary connection starts with
+ * BINARY_MAGIC, while a serialized one starts with the object stream header,
+ * so the accepting side can tell them apart from the first byte.
+ *
+ * @param <T> Packet type carried by the stream
+ */
+public class PacketStream<T extends Packet> {
+
+    // Format used by proxies that don't ask for one
+    public static WireFormat defaultFormat = WireFormat.BINARY;
+
+    // First byte sent by a binary client
+    public static final int BINARY_MAGIC = 0x42;
+
+    private PacketCodec<T> codec;
+    private WireFormat format;
+    private ObjectInputStream objectIn;
+    private ObjectOutputStream objectOut;
+    private DataInputStream dataIn;
+    private DataOutputStream dataOut;
+    private ReentrantLock writeLock = new ReentrantLock();
+
+    /**
+     * Creates a stream, use connect or accept
+     *
+     * @param codec Codec for binary frames
+     * @param format Format of the stream
+     */
+    private PacketStream(PacketCodec<T> codec, WireFormat format) {
+        this.codec = codec;
+        this.format = format;
+    }
+
+    /**
+     * Opens a stream from the connecting side
+     *
+     * @param s Connected socket
+     * @param codec Codec for binary frames
+     * @param format Format to use
+     * @param <T> Packet type
+     * @return opened stream
+     * @throws IOException if the socket fails
+     */
+    public static <T extends Packet> PacketStream<T> connect(
+            Socket s, PacketCodec<T> codec, WireFormat format)
+            throws IOException {
+        PacketStream<T> stream = new PacketStream<>(codec, format);
+
+        if (format == WireFormat.BINARY) {
+            stream.dataOut = new DataOutputStream(
+                    new BufferedOutputStream(s.getOutputStream()));
+            stream.dataOut.writeByte(BINARY_MAGIC);
+            stream.dataOut.flush();
+            stream.dataIn = new DataInputStream(
+                    new BufferedInputStream(s.getInputStream()));
+        } else {
+            stream.objectOut = new ObjectOutputStream(s.getOutputStream());
+            stream.objectOut.flush();
+            stream.objectIn = new ObjectInputStream(s.getInputStream());
+        }
+
+        return stream;
+    }
+
+    /**
+     * Opens a stream from the accepting side, detecting the format the
+     * client picked
+     *
+     * @param s Accepted socket
+     * @param codec Codec for binary frames
+     * @param <T> Packet type
+     * @return opened stream
+     * @throws IOException if the socket fails or the format is unknown
+     */
+    public static <T extends Packet> PacketStream<T> accept(
+            Socket s, PacketCodec<T> codec) throws IOException {
+        InputStream in = new BufferedInputStream(s.getInputStream());
+
+        // Peek at the first byte
+        in.mark(1);
+        int first = in.read();
+
+        if (first == BINARY_MAGIC) {
+            PacketStream<T> stream =
+                    new PacketStream<>(codec, WireFormat.BINARY);
+            stream.dataIn = new DataInputStream(in);
+            stream.dataOut = new DataOutputStream(
+                    new BufferedOutputStream(s.getOutputStream()));
+            return stream;
+        } else if (first == (ObjectOutputStream.STREAM_MAGIC >>> 8 & 0xFF)) {
+            in.reset();
+            PacketStream<T> stream =
+                    new PacketStream<>(codec, WireFormat.SERIALIZED);
+            stream.objectOut = new ObjectOutputStream(s.getOutputStream());
+            stream.objectOut.flush();
+            stream.objectIn = new ObjectInputStream(in);
+            return stream;
+        }
+
+        throw new IOException("Unknown wire format from " +
+                s.getRemoteSocketAddress());
+    }
+
+    /**
+     * Writes a packet and flushes it out
+     *
+     * Locked because responses and notifications share the stream. A
+     * ReentrantLock rather than a monitor so a virtual thread blocked on the
+     * socket doesn't pin its carrier.
+     *
+     * @param packet Packet to write
+     * @throws IOException if the socket fails
+     */
+    public void write(T packet) throws IOException {
+        writeLock.lock();
+        try {
+            if (format == WireFormat.BINARY) {
+                dataOut.write(codec.encode(packet));
+                dataOut.flush();
+            } else {
+                objectOut.writeObject(packet);
+                objectOut.flush();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until the next packet arrives
+     *
+     * @return Packet read
+     * @throws IOException if the socket fails or the frame is malformed
+     * @throws ClassNotFoundException if a serialized class is unknown
+     */
+    @SuppressWarnings("unchecked")
+    public T read() throws IOException, ClassNotFoundException {
+        if (format == WireFormat.BINARY) {
+            int length = dataIn.readInt();
+            if (length < 0 || length > PacketCodec.MAX_FRAME) {
+                throw new IOException("Bad frame length " + length);
+            }
+
+            byte[] body = new byte[length];
+            dataIn.readFully(body);
+            return codec.decode(body, 0, length);
+        }
+        return (T) objectIn.readObject();
+    }
+
+    /**
+     * @return format of the stream
+     */
+    public WireFormat getFormat() {
+        return format;
+    }
+}
@@ -0,0 +1,88 @@
+package Network;
+
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Correlation table of requests waiting for their responses.
+ *
+ * Every outstanding request gets its own future keyed by packet ID, and the
+ * reader thread completes exactly that future, so callers never share a
+ * monitor or wake each other up.
+ *
+ * @param <T> Packet type of the requests and responses
+ */
+public class PendingRequests<T extends Packet> {
+
+    private ConcurrentHashMap<Integer, CompletableFuture<T>> pending =
+            new ConcurrentHashMap<>();
+    private AtomicInteger nextID =
+            new AtomicInteger((int) (Math.random() * Integer.MAX_VALUE));
+
+    /**
+     * Gives the request a fresh packet ID and a slot for its response
+     *
+     * @param request Request about to be sent
+     * @return future completed with the response
+     */
+    public CompletableFuture<T> register(T request) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+
+        // IDs only need to be unique among the outstanding requests
+        int packetID;
+        do {
+            packetID = nextID.incrementAndGet();
+        } while (packetID == 0 || pending.putIfAbsent(packetID, future) != null);
+
+        request.setPacketID(packetID);
+        return future;
+    }
+
+    /**
+     * Completes the request the response belongs to
+     *
+     * @param response Response that arrived
+     * @return false if nothing was waiting on it
+     */
+    public boolean complete(T response) {
+        CompletableFuture<T> future = pending.remove(response.getPacketID());
+        if (future == null) return false;
+
+        future.complete(response);
+        return true;
+    }
+
+    /**
+     * Fails a single request, e.g. when it couldn't be written
+     *
+     * @param packetID Packet ID of the request
+     * @param cause Reason
+     */
+    public void fail(int packetID, Throwable cause) {
+        CompletableFuture<T> future = pending.remove(packetID);
+        if (future != null) future.completeExceptionally(cause);
+    }
+
+    /**
+     * Fails every outstanding request, e.g. when the connection is lost
+     *
+     * @param cause Reason
+     */
+    public void failAll(Throwable cause) {
+        Iterator<CompletableFuture<T>> futures = pending.values().iterator();
+        while (futures.hasNext()) {
+            CompletableFuture<T> future = futures.next();
+            futures.remove();
+            future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * @return number of requests still waiting
+     */
+    public int size() {
+        return pending.size();
+    }
+}
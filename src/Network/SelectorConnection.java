@@ -0,0 +1,246 @@
+package Network;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A single non-blocking connection owned by one SelectorServer event loop.
+ *
+ * Incoming bytes are buffered until whole frames are available. Outgoing
+ * packets are encoded by the caller and queued, then written by the event
+ * loop whenever the socket can take them.
+ *
+ * @param <T> Packet type carried by the connection
+ */
+public class SelectorConnection<T extends Packet> {
+
+    private static final int INITIAL_BUFFER = 4096;
+
+    private SocketChannel channel;
+    private SelectorServer<T>.EventLoop loop;
+    private PacketCodec<T> codec;
+    private PacketHandler<T> handler;
+    private SelectionKey key;
+    private ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER);
+    private boolean formatChecked = false;
+    private ConcurrentLinkedQueue<ByteBuffer> out =
+            new ConcurrentLinkedQueue<>();
+    private AtomicLong queuedBytes = new AtomicLong();
+    private AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private AtomicBoolean closed = new AtomicBoolean(false);
+    private SocketAddress remoteAddress;
+
+    /**
+     * Creates a connection, registered later by its event loop
+     *
+     * @param channel Accepted channel
+     * @param loop Event loop that owns the connection
+     * @param codec Codec for frames
+     * @param handler Handler for packets
+     */
+    SelectorConnection(SocketChannel channel, SelectorServer<T>.EventLoop loop,
+                       PacketCodec<T> codec, PacketHandler<T> handler) {
+        this.channel = channel;
+        this.loop = loop;
+        this.codec = codec;
+        this.handler = handler;
+        try {
+            remoteAddress = channel.getRemoteAddress();
+        } catch (IOException e) {
+            remoteAddress = null;
+        }
+    }
+
+    /**
+     * @return channel of the connection
+     */
+    SocketChannel channel() {
+        return channel;
+    }
+
+    /**
+     * Sets the selection key once registered
+     *
+     * @param key Selection key of the channel
+     */
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Queues a packet to be written by the event loop
+     *
+     * Safe to call from any thread
+     *
+     * @param packet Packet to send
+     * @throws IOException if the packet can't be encoded or the connection
+     * is closed
+     */
+    public void send(T packet) throws IOException {
+        if (closed.get()) throw new IOException("Connection closed");
+
+        byte[] frame = codec.encode(packet);
+        queuedBytes.addAndGet(frame.length);
+        out.add(ByteBuffer.wrap(frame));
+
+        // Only one pending flush task is needed at a time
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(() -> {
+                flushScheduled.set(false);
+                flush();
+            });
+        }
+    }
+
+    /**
+     * Reads what is available and hands complete frames to the handler.
+     * Called by the event loop.
+     */
+    void onReadable() {
+        int read;
+        try {
+            read = channel.read(in);
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        if (read < 0) {
+            close();
+            return;
+        }
+
+        in.flip();
+
+        // The first byte picks the format, only binary can be multiplexed
+        if (!formatChecked && in.hasRemaining()) {
+            if (in.get() != PacketStream.BINARY_MAGIC) {
+                System.out.println("Closing " + remoteAddress + ", only " +
+                        "binary clients are supported in selector mode");
+                close();
+                return;
+            }
+            formatChecked = true;
+        }
+
+        // Decode every complete frame
+        while (in.remaining() >= 4) {
+            int length = in.getInt(in.position());
+            if (length < 0 || length > PacketCodec.MAX_FRAME) {
+                System.out.println("Bad frame from " + remoteAddress);
+                close();
+                return;
+            }
+            if (in.remaining() < 4 + length) break;
+
+            T packet;
+            try {
+                packet = codec.decode(in.array(),
+                        in.arrayOffset() + in.position() + 4, length);
+            } catch (IOException e) {
+                System.out.println("Malformed frame from " + remoteAddress);
+                close();
+                return;
+            }
+            in.position(in.position() + 4 + length);
+            handler.received(this, packet);
+
+            if (closed.get()) return;
+        }
+
+        // Keep the partial frame and grow if it won't fit
+        if (in.remaining() >= 4) {
+            int needed = 4 + in.getInt(in.position());
+            if (needed > in.capacity()) {
+                ByteBuffer bigger = ByteBuffer.allocate(needed);
+                bigger.put(in);
+                in = bigger;
+                return;
+            }
+        }
+        in.compact();
+    }
+
+    /**
+     * Writes queued packets until the queue is empty or the socket is full.
+     * Called by the event loop.
+     */
+    void flush() {
+        if (closed.get()) return;
+
+        try {
+            ByteBuffer buffer;
+            while ((buffer = out.peek()) != null) {
+                channel.write(buffer);
+                if (buffer.hasRemaining()) break;
+                out.poll();
+                queuedBytes.addAndGet(-buffer.capacity());
+            }
+        } catch (IOException e) {
+            close();
+            return;
+        }
+
+        // Only ask for writable events while something is waiting
+        if (key != null && key.isValid()) {
+            int ops = key.interestOps();
+            if (out.isEmpty()) {
+                key.interestOps(ops & ~SelectionKey.OP_WRITE);
+            } else {
+                key.interestOps(ops | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    /**
+     * Closes the connection and tells the handler, only once
+     */
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+
+        if (key != null) key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        out.clear();
+        handler.disconnected(this);
+    }
+
+    /**
+     * @return bytes queued that the other side hasn't taken yet
+     */
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /**
+     * @return whether the connection was closed
+     */
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * @return address of the other side
+     */
+    public SocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * Make string representation
+     *
+     * @return String representation
+     */
+    @Override
+    public String toString() {
+        return "SelectorConnection " + remoteAddress;
+    }
+}
@@ -0,0 +1,198 @@
+package Network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Non-blocking server that multiplexes every connection over a small,
+ * fixed number of selector threads.
+ *
+ * One thread accepts and hands each connection to an event loop round robin.
+ * The event loops decode binary frames and call the PacketHandler on their
+ * own thread, so handlers must not block for long.
+ *
+ * @param <T> Packet type carried by the connections
+ */
+public class SelectorServer<T extends Packet> implements Runnable {
+
+    private ServerSocketChannel serverChannel;
+    private PacketCodec<T> codec;
+    private PacketHandler<T> handler;
+    private ArrayList<EventLoop> loops = new ArrayList<>();
+    private int nextLoop = 0;
+    private volatile boolean open = true;
+
+    /**
+     * Binds the server, call start to begin accepting
+     *
+     * @param port Port to listen on
+     * @param selectorThreads Number of event loops
+     * @param codec Codec for frames
+     * @param handler Handler for packets
+     * @throws IOException if the port can't be bound
+     */
+    public SelectorServer(int port, int selectorThreads,
+                          PacketCodec<T> codec, PacketHandler<T> handler)
+            throws IOException {
+        this.codec = codec;
+        this.handler = handler;
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+
+        for (int i = 0; i < Math.max(1, selectorThreads); i++) {
+            loops.add(new EventLoop());
+        }
+    }
+
+    /**
+     * Starts the event loops and the accepting thread
+     */
+    public void start() {
+        for (int i = 0; i < loops.size(); i++) {
+            new Thread(loops.get(i), "selector-" + i).start();
+        }
+        new Thread(this, "acceptor").start();
+    }
+
+    /**
+     * Accepts connections and spreads them over the event loops
+     */
+    @Override
+    public void run() {
+        while (open) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+
+                EventLoop loop = loops.get(nextLoop);
+                nextLoop = (nextLoop + 1) % loops.size();
+
+                SelectorConnection<T> connection =
+                        new SelectorConnection<>(channel, loop, codec,
+                                handler);
+                loop.execute(() -> loop.register(connection));
+            } catch (IOException e) {
+                if (open) e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Stops accepting and closes every event loop
+     */
+    public void close() {
+        open = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (EventLoop loop : loops) loop.close();
+    }
+
+    /**
+     * @return number of event loops
+     */
+    public int getSelectorThreads() {
+        return loops.size();
+    }
+
+    /**
+     * A selector and the thread that runs it
+     */
+    class EventLoop implements Runnable {
+
+        private Selector selector;
+        private ConcurrentLinkedQueue<Runnable> tasks =
+                new ConcurrentLinkedQueue<>();
+
+        /**
+         * Opens the selector
+         *
+         * @throws IOException if the selector can't be opened
+         */
+        EventLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        /**
+         * Runs a task on the event loop's thread
+         *
+         * @param task Task to run
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Registers a new connection, called on the loop's thread
+         *
+         * @param connection Connection to register
+         */
+        void register(SelectorConnection<T> connection) {
+            try {
+                SelectionKey key = connection.channel().register(selector,
+                        SelectionKey.OP_READ, connection);
+                connection.setKey(key);
+            } catch (IOException e) {
+                e.printStackTrace();
+                connection.close();
+                return;
+            }
+            handler.connected(connection);
+        }
+
+        /**
+         * Selects and dispatches until closed
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        public void run() {
+            while (open) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return;
+                }
+
+                // Run the tasks handed over by other threads
+                Runnable task;
+                while ((task = tasks.poll()) != null) task.run();
+
+                Iterator<SelectionKey> keys =
+                        selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    SelectorConnection<T> connection =
+                            (SelectorConnection<T>) key.attachment();
+                    if (key.isValid() && key.isReadable()) {
+                        connection.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.flush();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Wakes the loop so it can see it was closed
+         */
+        void close() {
+            selector.wakeup();
+        }
+    }
+}
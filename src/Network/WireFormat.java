@@ -0,0 +1,9 @@
+package Network;
+
+/**
+ * Enumeration of the encodings a connection can be opened with.
+ * Chosen by the connecting side, detected by the accepting side.
+ */
+public enum WireFormat {
+    SERIALIZED, BINARY;
+}